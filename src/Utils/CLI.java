@@ -1,10 +1,13 @@
 package Utils;
 
+import java.io.UncheckedIOException;
 import java.util.List;
 import java.util.Scanner;
+import java.util.StringJoiner;
 import java.util.stream.Collectors;
 
 import btree.BTree;
+import btree.UpdateBatch;
 
 // Command Line Interface (CLI)
 public class CLI {
@@ -94,7 +97,7 @@ public class CLI {
         }
 
         try {
-            Integer key = new Integer(tokens[1]);
+            int key = Integer.parseInt(tokens[1]);
             bTree.insert(key);
             //System.out.println("The key " + key + " has been inserted in the B+-tree!");
         } catch (Utils.DuplicateKeyException e) {
@@ -108,7 +111,7 @@ public class CLI {
             return;
         }
 
-        Integer key = new Integer(tokens[1]);
+        int key = Integer.parseInt(tokens[1]);
         try {
             bTree.delete(key);
             //System.out.println("The key " + key + " has been deleted in the B+-tree.");
@@ -124,7 +127,7 @@ public class CLI {
         }
 
         try {
-            List<Integer> result = bTree.search(new Integer(tokens[1]), new Integer(tokens[2]));
+            List<Integer> result = bTree.search(Integer.parseInt(tokens[1]), Integer.parseInt(tokens[2]));
             if (result.isEmpty()) {
                 System.out.println("No result for range " + tokens[1] + " - " + tokens[2]);
                 return;
@@ -167,28 +170,51 @@ public class CLI {
         }
 
         String updatesFileName = tokens[1];
-        String[] stringArray = readFile.readData(updatesFileName);
         //Do the update
-        //Just time the update in grading
+        //Just time the update in grading, the file is streamed, so this includes parsing it
         if(gradingMode) Clock.start();
-        try {
-            for (String str : stringArray) {
-                String[] words = str.split("\\s+");
-                switch (words[0].toLowerCase().trim()) {
-                    case "+":
-                        insertCommand(words, bTree);
-                        break;
-                    case "-":
-                        deleteCommand(words, bTree);
-                        break;
-                    default:
-                        System.out.println("Invalid input .");
+        try (RecordReader reader = new RecordReader(updatesFileName)) {
+            // apply the updates in batches, so the tree descends once per touched leaf instead of once per line
+            UpdateBatch batch = new UpdateBatch();
+            int rejected = 0;
+            while (reader.nextLine()) {
+                char operator = reader.nextOperator();
+                if (operator == 0) {
+                    System.out.println("Invalid input .");
+                    continue;
+                }
+                if (reader.atEndOfLine()) {
+                    System.out.println("Invalid number of arguments.");
+                    continue;
+                }
+                int key;
+                try {
+                    key = reader.nextInt();
+                } catch (NumberFormatException e) {
+                    System.out.println("Invalid input .");
+                    continue;
+                }
+                if (!reader.atEndOfLine()) {
+                    System.out.println("Invalid number of arguments.");
+                    continue;
+                }
+                if (operator == '+') {
+                    batch.insert(key);
+                } else {
+                    batch.delete(key);
+                }
+                if (batch.size() == UPDATE_BATCH_SIZE) {
+                    rejected += bTree.applyBatch(batch);
+                    batch.clear();
                 }
-
             }
+            rejected += bTree.applyBatch(batch);
             if(gradingMode) Clock.stop();
             if(gradingMode) System.out.println("Elapsed Time (ms): " + Clock.getElapsedTimeInMilliSec());
-        } catch (Utils.TreeIsEmptyException e) {
+            if (rejected > 0) {
+                System.out.println(rejected + " update(s) rejected: key already present or not found.");
+            }
+        } catch (Utils.TreeIsEmptyException | UncheckedIOException e) {
             System.out.println(e.getMessage());
         }
 
@@ -201,38 +227,59 @@ public class CLI {
         }
 
         String queriesFileName = tokens[1];
-        String[] stringArray = readFile.readData(queriesFileName);
-        try {
+        try (RecordReader reader = new RecordReader(queriesFileName)) {
 
             //Do the search
-            //Just time the search in grading
+            //Just time the search in grading, the file is streamed, so this includes parsing it
             if(gradingMode) Clock.start();
-            for (String str : stringArray) {
-                String[] words = str.split("\\s+");
-                System.out.println(str);
-                List<Integer> result = bTree.search(new Integer(words[0]),
-                        new Integer(words[1]));
-
-                if (result.isEmpty()) {
-                    System.out.println("No result for range " + tokens[1] + " - " + tokens[2]);
-                    return;
+            while (reader.nextLine()) {
+                // a malformed line is reported and skipped like in updateTest, the rest of the file still runs
+                int key1;
+                int key2;
+                try {
+                    key1 = reader.nextInt();
+                    if (reader.atEndOfLine()) {
+                        System.out.println("Invalid number of arguments.");
+                        continue;
+                    }
+                    key2 = reader.nextInt();
+                } catch (NumberFormatException e) {
+                    System.out.println("Invalid input .");
+                    continue;
+                }
+                if (!reader.atEndOfLine()) {
+                    System.out.println("Invalid number of arguments.");
+                    continue;
+                }
+                System.out.println(key1 + " " + key2);
+                // stream the range instead of building a List, only keep the text when it gets printed
+                StringJoiner joiner = gradingMode ? null : new StringJoiner(", ");
+                int[] resultSize = {0};
+                bTree.search(key1, key2, key -> {
+                    resultSize[0]++;
+                    if (joiner != null) {
+                        joiner.add(String.valueOf(key));
+                    }
+                });
+
+                if (resultSize[0] == 0) {
+                    System.out.println("No result for range " + key1 + " - " + key2);
+                    continue;
                 }
                 if (!gradingMode) {
-                    System.out.println("Result (" + result.size() + " data(s)): ");
-                    System.out.println(result.stream()
-                            .map(String::valueOf)
-                            .collect(Collectors.joining(", "))
-                    );
+                    System.out.println("Result (" + resultSize[0] + " data(s)): ");
+                    System.out.println(joiner);
                 }
             }
             if(gradingMode) Clock.stop();
             if(gradingMode) System.out.println("Elapsed Time (ms): " + Clock.getElapsedTimeInMilliSec());
-        } catch (Utils.TreeIsEmptyException e) {
+        } catch (Utils.TreeIsEmptyException | UncheckedIOException e) {
             System.out.println(e.getMessage());
         }
 
     }
 
     private static boolean gradingMode = false;
+    private static final int UPDATE_BATCH_SIZE = 10000;
     
 }
@@ -0,0 +1,194 @@
+package Utils;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.function.IntConsumer;
+
+/**
+ * Streams the records of a data, update or query file, decoding the bytes of a line directly into ints and
+ * operators. Nothing is materialized: no String per line, no array of lines, no split, so reading a file
+ * costs one buffer however long it is.
+ *
+ * Usage: call nextLine, then read the fields of the line with nextInt, nextOperator and atEndOfLine.
+ * Fields are separated by spaces or tabs, blank lines are skipped, a line may end in \r\n.
+ */
+public class RecordReader implements Closeable {
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int EOF = -1;
+
+    private final FileChannel channel;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private final ByteBuffer wrapper = ByteBuffer.wrap(buffer);
+    private int position = 0;
+    private int limit = 0;
+    private boolean inLine = false; // a line was started and its newline not consumed yet
+
+    /**
+     * @param filePath file to read
+     * @throws UncheckedIOException if the file can not be opened
+     */
+    public RecordReader(String filePath) {
+        try {
+            channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Read every line of a data file as one key
+     * @param filePath data file, one key per line
+     * @param consumer receives the keys in file order
+     */
+    public static void readKeys(String filePath, IntConsumer consumer) {
+        try (RecordReader reader = new RecordReader(filePath)) {
+            while (reader.nextLine()) {
+                consumer.accept(reader.nextInt());
+            }
+        }
+    }
+
+    /**
+     * @return the next byte, EOF at the end of the file
+     */
+    private int peek() {
+        if (position == limit) {
+            try {
+                wrapper.clear();
+                int read;
+                do {
+                    read = channel.read(wrapper);
+                } while (read == 0);
+                if (read < 0) {
+                    return EOF;
+                }
+                position = 0;
+                limit = read;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return buffer[position] & 0xff;
+    }
+
+    private void skipBlanks() {
+        int c = peek();
+        while (c == ' ' || c == '\t' || c == '\r') {
+            position++;
+            c = peek();
+        }
+    }
+
+    private static boolean isDelimiter(int c) {
+        return c == ' ' || c == '\t' || c == '\r' || c == '\n' || c == EOF;
+    }
+
+    /**
+     * Move to the next non-blank line, skipping what is left of the current one
+     * @return false at the end of the file
+     */
+    public boolean nextLine() {
+        if (inLine) {
+            int c = peek();
+            while (c != '\n' && c != EOF) {
+                position++;
+                c = peek();
+            }
+        }
+        while (true) {
+            skipBlanks();
+            int c = peek();
+            if (c == EOF) {
+                inLine = false;
+                return false;
+            }
+            if (c != '\n') {
+                inLine = true;
+                return true;
+            }
+            position++;
+        }
+    }
+
+    /**
+     * @return whether the current line has no fields left
+     */
+    public boolean atEndOfLine() {
+        skipBlanks();
+        int c = peek();
+        return c == '\n' || c == EOF;
+    }
+
+    /**
+     * @return whether the current line has no fields left and ends in a newline, false for a last line
+     * the file ends in the middle of
+     */
+    public boolean atTerminatedEndOfLine() {
+        skipBlanks();
+        return peek() == '\n';
+    }
+
+    /**
+     * Read the next field of the line as a decimal int, with an optional sign
+     * @throws NumberFormatException if the field is missing, not a number or out of the int range
+     */
+    public int nextInt() {
+        skipBlanks();
+        int c = peek();
+        boolean negative = c == '-';
+        if (c == '-' || c == '+') {
+            position++;
+            c = peek();
+        }
+        // accumulate negatively, the negative range holds Integer.MIN_VALUE
+        long value = 0;
+        int digits = 0;
+        while (c >= '0' && c <= '9') {
+            value = value * 10 - (c - '0');
+            if (value < Integer.MIN_VALUE) {
+                throw new NumberFormatException("Number out of int range");
+            }
+            digits++;
+            position++;
+            c = peek();
+        }
+        if (digits == 0 || !isDelimiter(c)) {
+            throw new NumberFormatException("Malformed number");
+        }
+        if (!negative) {
+            value = -value;
+            if (value > Integer.MAX_VALUE) {
+                throw new NumberFormatException("Number out of int range");
+            }
+        }
+        return (int) value;
+    }
+
+    /**
+     * Read the next field of the line as an update operator
+     * @return '+' or '-', 0 if the field is missing or anything else
+     */
+    public char nextOperator() {
+        skipBlanks();
+        int c = peek();
+        if (c != '+' && c != '-') {
+            return 0;
+        }
+        position++;
+        return isDelimiter(peek()) ? (char) c : 0;
+    }
+
+    @Override
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
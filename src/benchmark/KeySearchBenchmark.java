@@ -0,0 +1,66 @@
+package benchmark;
+
+import java.util.Random;
+
+import btree.KeySearch;
+
+/**
+ * Compares the KeySearch strategies on a single node worth of keys for a range of degrees,
+ * which is the work findLeafNode repeats at every level of the tree.
+ * Prints the average cost of one upperBound call in nanoseconds.
+ */
+public class KeySearchBenchmark {
+    private static final int[] DEGREES = {4, 8, 16, 32, 64, 128, 256, 512, 1024};
+    private static final int PROBES = 1 << 16;
+    private static final int WARMUP_ROUNDS = 20;
+    private static final int MEASURE_ROUNDS = 30;
+
+    // written at the end so the JIT cannot drop the lookups as dead code
+    private static long sink;
+
+    public static void main(String[] args) {
+        Random random = new Random(42);
+
+        System.out.printf("%-8s", "degree");
+        for (KeySearch search : KeySearch.values()) {
+            System.out.printf("%14s", search);
+        }
+        System.out.println();
+
+        for (int degree : DEGREES) {
+            // a full node, keys spaced out so that half of the probes miss
+            int[] keys = new int[degree];
+            for (int i = 0; i < degree; i++) {
+                keys[i] = i * 2;
+            }
+            int[] probes = new int[PROBES];
+            for (int i = 0; i < PROBES; i++) {
+                probes[i] = random.nextInt(degree * 2 + 2) - 1;
+            }
+
+            System.out.printf("%-8d", degree);
+            for (KeySearch search : KeySearch.values()) {
+                for (int round = 0; round < WARMUP_ROUNDS; round++) {
+                    run(search, keys, probes);
+                }
+                long best = Long.MAX_VALUE;
+                for (int round = 0; round < MEASURE_ROUNDS; round++) {
+                    long start = System.nanoTime();
+                    run(search, keys, probes);
+                    best = Math.min(best, System.nanoTime() - start);
+                }
+                System.out.printf("%14.2f", (double) best / PROBES);
+            }
+            System.out.println();
+        }
+        System.out.println("(ns per lookup, best of " + MEASURE_ROUNDS + " rounds, checksum " + sink + ")");
+    }
+
+    private static void run(KeySearch search, int[] keys, int[] probes) {
+        long total = 0;
+        for (int probe : probes) {
+            total += search.upperBound(keys, keys.length, probe);
+        }
+        sink += total;
+    }
+}
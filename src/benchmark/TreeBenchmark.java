@@ -0,0 +1,357 @@
+package benchmark;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.IntConsumer;
+
+import btree.MandyTree;
+
+/**
+ * Benchmarks MandyTree.insert, delete, point search, range search and load separately, for every
+ * combination of the given degrees, fill factors, dataset sizes and key distributions.
+ *
+ * Every operation is timed on its own, so the report holds the throughput, the latency percentiles of a
+ * single operation and the bytes allocated per operation. Nothing is printed while measuring, output of
+ * the tree is discarded.
+ *
+ * Usage: java benchmark.TreeBenchmark [name=value ...], lists are comma separated
+ *   degree=4,16,64  fill=0.5  size=100000  distribution=sequential,uniform,zipfian
+ *   op=insert,delete,search,range,load  range=100  warmup=3  iterations=5  seed=42
+ *
+ * Distributions: the dataset always holds size distinct keys in [0, 4 * size).
+ *   sequential: keys are inserted and deleted in ascending order, searches walk the keys in order
+ *   uniform:    keys are inserted and deleted in random order, searches pick keys uniformly
+ *   zipfian:    like uniform, but searches pick keys with a scrambled zipfian skew (theta 0.99),
+ *               so a few hot keys take most of the lookups
+ *
+ * Each configuration shares one JVM with the others, run one configuration per invocation when
+ * comparing results that are close.
+ */
+public class TreeBenchmark {
+    private static final double ZIPF_THETA = 0.99;
+
+    // written at the end so the JIT cannot drop the searches as dead code
+    private static long sink;
+
+    private enum Operation { INSERT, DELETE, SEARCH, RANGE, LOAD }
+
+    private enum Distribution { SEQUENTIAL, UNIFORM, ZIPFIAN }
+
+    public static void main(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        options.put("degree", "4,16,64");
+        options.put("fill", "0.5");
+        options.put("size", "100000");
+        options.put("distribution", "sequential,uniform,zipfian");
+        options.put("op", "insert,delete,search,range,load");
+        options.put("range", "100");
+        options.put("warmup", "3");
+        options.put("iterations", "5");
+        options.put("seed", "42");
+        for (String arg : args) {
+            String[] parts = arg.split("=", 2);
+            if (parts.length != 2 || !options.containsKey(parts[0])) {
+                System.out.println("Unknown option " + arg + ", expected one of " + options.keySet());
+                return;
+            }
+            options.put(parts[0], parts[1]);
+        }
+
+        int rangeWidth = Integer.parseInt(options.get("range"));
+        int warmup = Integer.parseInt(options.get("warmup"));
+        int iterations = Integer.parseInt(options.get("iterations"));
+        long seed = Long.parseLong(options.get("seed"));
+
+        System.out.printf("%-8s%8s%6s%10s%14s%14s%10s%10s%10s%10s%10s%n", "op", "degree", "fill", "size",
+                "distribution", "ops/s", "p50 ns", "p90 ns", "p99 ns", "p99.9 ns", "B/op");
+        PrintStream console = System.out;
+        for (String size : options.get("size").split(",")) {
+            for (String distribution : options.get("distribution").split(",")) {
+                Workload workload = new Workload(Integer.parseInt(size),
+                        Distribution.valueOf(distribution.trim().toUpperCase()), new Random(seed));
+                for (String degree : options.get("degree").split(",")) {
+                    for (String fill : options.get("fill").split(",")) {
+                        for (String op : options.get("op").split(",")) {
+                            Operation operation = Operation.valueOf(op.trim().toUpperCase());
+                            Benchmark benchmark = new Benchmark(workload, Integer.parseInt(degree.trim()),
+                                    Double.parseDouble(fill.trim()), rangeWidth);
+                            System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+                            Result result;
+                            try {
+                                for (int i = 0; i < warmup; i++) {
+                                    benchmark.run(operation);
+                                }
+                                result = new Result();
+                                for (int i = 0; i < iterations; i++) {
+                                    result.add(benchmark.run(operation));
+                                }
+                            } finally {
+                                System.setOut(console);
+                            }
+                            result.print(operation, degree.trim(), fill.trim(), size.trim(), distribution.trim());
+                        }
+                    }
+                }
+                workload.close();
+            }
+        }
+        System.out.println("(checksum " + sink + ")");
+    }
+
+    /**
+     * Keys and search probes of one dataset, shared by every tree configuration
+     */
+    private static class Workload {
+        final int[] keys; // in insert and delete order
+        final int[] sortedKeys;
+        final int[] probes; // keys to search for
+        private Path dataFile;
+
+        Workload(int size, Distribution distribution, Random random) {
+            // distinct keys in [0, 4 * size): pick one of every 4 consecutive values
+            sortedKeys = new int[size];
+            for (int i = 0; i < size; i++) {
+                sortedKeys[i] = i * 4 + random.nextInt(4);
+            }
+            keys = sortedKeys.clone();
+            probes = new int[size];
+            switch (distribution) {
+                case SEQUENTIAL:
+                    System.arraycopy(sortedKeys, 0, probes, 0, size);
+                    break;
+                case UNIFORM:
+                    shuffle(keys, random);
+                    for (int i = 0; i < size; i++) {
+                        probes[i] = sortedKeys[random.nextInt(size)];
+                    }
+                    break;
+                case ZIPFIAN:
+                    shuffle(keys, random);
+                    // the popularity ranks are scattered over the key space, so the hot keys are not neighbours
+                    int[] scramble = sortedKeys.clone();
+                    shuffle(scramble, random);
+                    double[] cdf = zipfCdf(size);
+                    for (int i = 0; i < size; i++) {
+                        int rank = Arrays.binarySearch(cdf, random.nextDouble());
+                        probes[i] = scramble[Math.min(rank < 0 ? -rank - 1 : rank, size - 1)];
+                    }
+                    break;
+            }
+        }
+
+        /**
+         * Data file with the keys in ascending order, written on first use
+         */
+        Path dataFile() {
+            if (dataFile == null) {
+                try {
+                    dataFile = Files.createTempFile("benchmark", ".txt");
+                    try (BufferedWriter writer = Files.newBufferedWriter(dataFile)) {
+                        for (int key : sortedKeys) {
+                            writer.write(Integer.toString(key));
+                            writer.newLine();
+                        }
+                    }
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return dataFile;
+        }
+
+        void close() {
+            if (dataFile != null) {
+                try {
+                    Files.delete(dataFile);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+
+        private static void shuffle(int[] array, Random random) {
+            for (int i = array.length - 1; i > 0; i--) {
+                int j = random.nextInt(i + 1);
+                int swap = array[i];
+                array[i] = array[j];
+                array[j] = swap;
+            }
+        }
+
+        private static double[] zipfCdf(int size) {
+            double[] cdf = new double[size];
+            double total = 0;
+            for (int rank = 0; rank < size; rank++) {
+                total += 1 / Math.pow(rank + 1, ZIPF_THETA);
+                cdf[rank] = total;
+            }
+            for (int rank = 0; rank < size; rank++) {
+                cdf[rank] /= total;
+            }
+            return cdf;
+        }
+    }
+
+    /**
+     * One tree configuration, every run builds the trees it needs from scratch outside the timed section
+     */
+    private static class Benchmark {
+        private final Workload workload;
+        private final int degree;
+        private final double fill;
+        private final int rangeWidth;
+        private MandyTree loaded; // full tree for the searches, built once
+
+        Benchmark(Workload workload, int degree, double fill, int rangeWidth) {
+            this.workload = workload;
+            this.degree = degree;
+            this.fill = fill;
+            this.rangeWidth = rangeWidth;
+        }
+
+        private MandyTree fullTree() {
+            MandyTree tree = new MandyTree(fill, degree);
+            for (int key : workload.keys) {
+                tree.insert(key);
+            }
+            return tree;
+        }
+
+        /**
+         * Run the operation once over the whole workload
+         * @return latency of every operation in nanoseconds, and the bytes allocated meanwhile
+         */
+        Iteration run(Operation operation) {
+            int[] keys = workload.keys;
+            long[] latencies;
+            long allocated;
+            switch (operation) {
+                case INSERT: {
+                    MandyTree tree = new MandyTree(fill, degree);
+                    latencies = new long[keys.length];
+                    allocated = allocatedBytes();
+                    for (int i = 0; i < keys.length; i++) {
+                        long start = System.nanoTime();
+                        tree.insert(keys[i]);
+                        latencies[i] = System.nanoTime() - start;
+                    }
+                    allocated = allocatedBytes() - allocated;
+                    break;
+                }
+                case DELETE: {
+                    MandyTree tree = fullTree();
+                    latencies = new long[keys.length];
+                    allocated = allocatedBytes();
+                    for (int i = 0; i < keys.length; i++) {
+                        long start = System.nanoTime();
+                        tree.delete(keys[i]);
+                        latencies[i] = System.nanoTime() - start;
+                    }
+                    allocated = allocatedBytes() - allocated;
+                    break;
+                }
+                case SEARCH:
+                case RANGE: {
+                    if (loaded == null) {
+                        loaded = fullTree();
+                    }
+                    int[] probes = workload.probes;
+                    int width = operation == Operation.RANGE ? rangeWidth : 0;
+                    long[] found = {0};
+                    // created once, a capturing lambda per probe would count against the tree's allocation
+                    IntConsumer consumer = (key) -> found[0] += key;
+                    latencies = new long[probes.length];
+                    allocated = allocatedBytes();
+                    for (int i = 0; i < probes.length; i++) {
+                        long start = System.nanoTime();
+                        loaded.search(probes[i], probes[i] + width, consumer);
+                        latencies[i] = System.nanoTime() - start;
+                    }
+                    allocated = allocatedBytes() - allocated;
+                    sink += found[0];
+                    break;
+                }
+                case LOAD: {
+                    String dataFile = workload.dataFile().toString();
+                    MandyTree tree = new MandyTree(fill, degree);
+                    latencies = new long[1];
+                    allocated = allocatedBytes();
+                    long start = System.nanoTime();
+                    tree.load(dataFile);
+                    latencies[0] = System.nanoTime() - start;
+                    allocated = allocatedBytes() - allocated;
+                    break;
+                }
+                default:
+                    throw new IllegalArgumentException(operation.toString());
+            }
+            return new Iteration(latencies, operation == Operation.LOAD ? keys.length : latencies.length, allocated);
+        }
+    }
+
+    /**
+     * Bytes allocated by the current thread so far, -1 if the JVM does not track it
+     */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getCurrentThreadAllocatedBytes();
+        }
+        return -1;
+    }
+
+    private static class Iteration {
+        final long[] latencies;
+        final long keys; // keys processed, a load is a single operation over all keys
+        final long allocated;
+
+        Iteration(long[] latencies, long keys, long allocated) {
+            this.latencies = latencies;
+            this.keys = keys;
+            this.allocated = allocated;
+        }
+    }
+
+    /**
+     * Measured iterations of one configuration, throughput and allocation are per key
+     */
+    private static class Result {
+        private long[] latencies = new long[0];
+        private long keys = 0;
+        private long totalNanos = 0;
+        private long allocated = 0;
+
+        void add(Iteration iteration) {
+            int offset = latencies.length;
+            latencies = Arrays.copyOf(latencies, offset + iteration.latencies.length);
+            System.arraycopy(iteration.latencies, 0, latencies, offset, iteration.latencies.length);
+            for (long latency : iteration.latencies) {
+                totalNanos += latency;
+            }
+            keys += iteration.keys;
+            allocated = iteration.allocated < 0 || allocated < 0 ? -1 : allocated + iteration.allocated;
+        }
+
+        private long percentile(double fraction) {
+            return latencies[(int) Math.min(latencies.length - 1, Math.ceil(fraction * latencies.length) - 1)];
+        }
+
+        void print(Operation operation, String degree, String fill, String size, String distribution) {
+            Arrays.sort(latencies);
+            System.out.printf("%-8s%8s%6s%10s%14s%14.0f%10d%10d%10d%10d%10s%n", operation.toString().toLowerCase(),
+                    degree, fill, size, distribution, keys * 1e9 / totalNanos, percentile(0.5), percentile(0.9),
+                    percentile(0.99), percentile(0.999),
+                    allocated < 0 ? "n/a" : String.format("%.1f", (double) allocated / keys));
+        }
+    }
+}
@@ -0,0 +1,363 @@
+package btree;
+
+import java.util.Arrays;
+
+/**
+ * Index nodes, update paths and rebalancing shared by the key-value trees. A subclass decides how keys
+ * compare and how a leaf stores its entries, this class moves separators and children around.
+ *
+ * Nodes have the same shape as in MandyTree: a leaf holds up to DEGREE entries, an index node up to
+ * DEGREE separators and DEGREE + 1 children, and every node but the root keeps at least
+ * ceil((DEGREE - 1) / 2) keys. Nodes have no parent pointers, updates remember the path of their descent.
+ *
+ * Separators are kept in an array of the subclass' choosing, long[] for long keys, so that index nodes do
+ * not box. They are only ever moved with System.arraycopy here, which works on any array type.
+ * @param <S> array type of the separators of an index node
+ * @param <L> leaf type
+ */
+abstract class AbstractMandyTree<S, L extends AbstractMandyTree.Leaf> {
+    final int DEGREE;
+    Node root = null;
+    private long size = 0;
+    private int height = 0;
+
+    // path of the last update's descent: the index nodes from the root down and the child taken in each
+    @SuppressWarnings("unchecked")
+    private Branch<S>[] pathNodes = (Branch<S>[]) new Branch<?>[8];
+    private int[] pathSlots = new int[8];
+    int pathLength = 0;
+
+    // separator on its way up from a split
+    private final S carry;
+
+    static abstract class Node {
+        int keyCount; // only the first keyCount slots are in use
+    }
+
+    static abstract class Leaf extends Node {
+        final Object[] values; // parallel to the keys
+        Leaf next;
+        Leaf previous;
+
+        // one extra slot, so an overflowing leaf can be split after the insert
+        Leaf(int degree) {
+            values = new Object[degree + 1];
+        }
+    }
+
+    static final class Branch<S> extends Node {
+        final S keys; // separators, child i holds the keys in [keys[i - 1], keys[i])
+        final Node[] children;
+
+        Branch(S keys, int degree) {
+            this.keys = keys;
+            children = new Node[degree + 2];
+        }
+    }
+
+    /**
+     * @param DEGREE most keys a node holds, at least 2
+     */
+    AbstractMandyTree(int DEGREE) {
+        if (DEGREE < 2) {
+            throw new IllegalArgumentException("Degree must be at least 2, got " + DEGREE);
+        }
+        this.DEGREE = DEGREE;
+        this.carry = newSeparators(1);
+    }
+
+    /**
+     * @return an empty separator array of the given length
+     */
+    abstract S newSeparators(int length);
+
+    /**
+     * @return an empty leaf
+     */
+    abstract L newLeaf();
+
+    /**
+     * Move the upper half of the entries of an overflowing leaf into an empty leaf
+     * @param separator receives the separator between leaf and right at index 0
+     */
+    abstract void splitEntries(L leaf, L right, S separator);
+
+    /**
+     * Move the last entry of from to the front of leaf, its right neighbour, and update the separator between them
+     * @param separators separators of the parent, the one between from and leaf at index
+     */
+    abstract void borrowLast(L from, L leaf, S separators, int index);
+
+    /**
+     * Move the first entry of from to the end of leaf, its left neighbour, and update the separator between them
+     * @param separators separators of the parent, the one between leaf and from at index
+     */
+    abstract void borrowFirst(L from, L leaf, S separators, int index);
+
+    /**
+     * Append the entries of right to left, its left neighbour
+     */
+    abstract void mergeEntries(L left, L right);
+
+    @SuppressWarnings("unchecked")
+    static <S> Branch<S> asBranch(Node node) {
+        return (Branch<S>) node;
+    }
+
+    int minKeys() {
+        return (int) Math.ceil((DEGREE - 1) / 2.0);
+    }
+
+    /**
+     * Take a step of an update's descent, remembering it for a split or merge
+     * @return the child taken
+     */
+    Node pushPath(Branch<S> branch, int slot) {
+        if (pathLength == pathNodes.length) {
+            pathNodes = Arrays.copyOf(pathNodes, pathLength * 2);
+            pathSlots = Arrays.copyOf(pathSlots, pathLength * 2);
+        }
+        pathNodes[pathLength] = branch;
+        pathSlots[pathLength] = slot;
+        pathLength++;
+        return branch.children[slot];
+    }
+
+    /**
+     * Make a leaf holding the first entry the root of the empty tree
+     */
+    void plantRoot(L leaf) {
+        root = leaf;
+        height = 1;
+        size = 1;
+    }
+
+    /**
+     * Account for an entry added to the leaf the last descent ended in, splitting the leaf if it overflows
+     */
+    void entryAdded(L leaf) {
+        size++;
+        if (leaf.keyCount > DEGREE) {
+            splitLeaf(leaf);
+        }
+    }
+
+    /**
+     * Account for an entry removed from the leaf the last descent ended in, rebalancing the leaf if it underflows
+     */
+    void entryRemoved(L leaf) {
+        size--;
+        if (leaf == root) {
+            if (leaf.keyCount == 0) {
+                root = null;
+                height = 0;
+            }
+        } else if (leaf.keyCount < minKeys()) {
+            rebalance(leaf);
+        }
+    }
+
+    private Branch<S> newBranch() {
+        return new Branch<>(newSeparators(DEGREE + 1), DEGREE);
+    }
+
+    private static void copySeparator(Object from, int fromIndex, Object to, int toIndex) {
+        System.arraycopy(from, fromIndex, to, toIndex, 1);
+    }
+
+    /**
+     * Drop separators no longer in use, so that object separators can be collected
+     */
+    private static void clearSeparators(Object keys, int from, int to) {
+        if (keys instanceof Object[]) {
+            Arrays.fill((Object[]) keys, from, to, null);
+        }
+    }
+
+    /**
+     * Move the upper half of an overflowing leaf into a new right sibling
+     */
+    private void splitLeaf(L leaf) {
+        L right = newLeaf();
+        splitEntries(leaf, right, carry);
+        right.next = leaf.next;
+        right.previous = leaf;
+        if (leaf.next != null) {
+            leaf.next.previous = right;
+        }
+        leaf.next = right;
+        insertIntoParent(right);
+    }
+
+    /**
+     * Add a node split off the last node of the path to its parent, splitting index nodes upwards
+     * while they overflow, and growing a new root when the old one splits
+     * @param right new right sibling of the node the descent ended in, the separator between them is in carry
+     */
+    private void insertIntoParent(Node right) {
+        for (int depth = pathLength - 1; depth >= 0; depth--) {
+            Branch<S> parent = pathNodes[depth];
+            int slot = pathSlots[depth];
+            System.arraycopy(parent.keys, slot, parent.keys, slot + 1, parent.keyCount - slot);
+            System.arraycopy(parent.children, slot + 1, parent.children, slot + 2, parent.keyCount - slot);
+            copySeparator(carry, 0, parent.keys, slot);
+            parent.children[slot + 1] = right;
+            parent.keyCount++;
+            if (parent.keyCount <= DEGREE) {
+                return;
+            }
+
+            // the middle key moves up, the keys and children right of it go to the new node
+            Branch<S> newBranch = newBranch();
+            int middle = parent.keyCount / 2;
+            int moved = parent.keyCount - middle - 1;
+            copySeparator(parent.keys, middle, carry, 0);
+            System.arraycopy(parent.keys, middle + 1, newBranch.keys, 0, moved);
+            System.arraycopy(parent.children, middle + 1, newBranch.children, 0, moved + 1);
+            clearSeparators(parent.keys, middle, parent.keyCount);
+            Arrays.fill(parent.children, middle + 1, parent.keyCount + 1, null);
+            newBranch.keyCount = moved;
+            parent.keyCount = middle;
+            right = newBranch;
+        }
+
+        Branch<S> newRoot = newBranch();
+        copySeparator(carry, 0, newRoot.keys, 0);
+        newRoot.children[0] = root;
+        newRoot.children[1] = right;
+        newRoot.keyCount = 1;
+        root = newRoot;
+        height++;
+    }
+
+    /**
+     * Remove a separator and the child right of it from an index node
+     */
+    private static void removeSeparator(Branch<?> branch, int index) {
+        System.arraycopy(branch.keys, index + 1, branch.keys, index, branch.keyCount - index - 1);
+        System.arraycopy(branch.children, index + 2, branch.children, index + 1, branch.keyCount - index - 1);
+        branch.keyCount--;
+        clearSeparators(branch.keys, branch.keyCount, branch.keyCount + 1);
+        branch.children[branch.keyCount + 1] = null;
+    }
+
+    /**
+     * Fix an underfull node at the end of the path by borrowing from a sibling under the same parent,
+     * or by merging with one, and continue upwards while the parent underflows in turn
+     * @param node underfull node, the last node of the path
+     */
+    @SuppressWarnings("unchecked")
+    private void rebalance(Node node) {
+        for (int depth = pathLength - 1; depth >= 0; depth--) {
+            Branch<S> parent = pathNodes[depth];
+            int slot = pathSlots[depth];
+            Node left = slot > 0 ? parent.children[slot - 1] : null;
+            Node right = slot < parent.keyCount ? parent.children[slot + 1] : null;
+
+            if (node instanceof Leaf) {
+                L leaf = (L) node;
+                if (left != null && left.keyCount > minKeys()) {
+                    borrowLast((L) left, leaf, parent.keys, slot - 1);
+                    return;
+                }
+                if (right != null && right.keyCount > minKeys()) {
+                    borrowFirst((L) right, leaf, parent.keys, slot);
+                    return;
+                }
+                if (left != null) {
+                    mergeLeaves((L) left, leaf);
+                    removeSeparator(parent, slot - 1);
+                } else {
+                    mergeLeaves(leaf, (L) right);
+                    removeSeparator(parent, slot);
+                }
+            } else {
+                Branch<S> branch = asBranch(node);
+                if (left != null && left.keyCount > minKeys()) {
+                    // rotate the last child of the left sibling over, its key replaces the separator
+                    Branch<S> from = asBranch(left);
+                    System.arraycopy(branch.keys, 0, branch.keys, 1, branch.keyCount);
+                    System.arraycopy(branch.children, 0, branch.children, 1, branch.keyCount + 1);
+                    copySeparator(parent.keys, slot - 1, branch.keys, 0);
+                    branch.children[0] = from.children[from.keyCount];
+                    branch.keyCount++;
+                    copySeparator(from.keys, from.keyCount - 1, parent.keys, slot - 1);
+                    clearSeparators(from.keys, from.keyCount - 1, from.keyCount);
+                    from.children[from.keyCount] = null;
+                    from.keyCount--;
+                    return;
+                }
+                if (right != null && right.keyCount > minKeys()) {
+                    // rotate the first child of the right sibling over
+                    Branch<S> from = asBranch(right);
+                    copySeparator(parent.keys, slot, branch.keys, branch.keyCount);
+                    branch.children[branch.keyCount + 1] = from.children[0];
+                    branch.keyCount++;
+                    copySeparator(from.keys, 0, parent.keys, slot);
+                    System.arraycopy(from.keys, 1, from.keys, 0, from.keyCount - 1);
+                    System.arraycopy(from.children, 1, from.children, 0, from.keyCount);
+                    from.keyCount--;
+                    clearSeparators(from.keys, from.keyCount, from.keyCount + 1);
+                    from.children[from.keyCount + 1] = null;
+                    return;
+                }
+                if (left != null) {
+                    mergeBranches(asBranch(left), parent, slot - 1, branch);
+                    removeSeparator(parent, slot - 1);
+                } else {
+                    mergeBranches(branch, parent, slot, asBranch(right));
+                    removeSeparator(parent, slot);
+                }
+            }
+
+            if (parent == root) {
+                if (parent.keyCount == 0) {
+                    // the root lost its last separator, its only child becomes the new root
+                    root = parent.children[0];
+                    height--;
+                }
+                return;
+            }
+            if (parent.keyCount >= minKeys()) {
+                return;
+            }
+            node = parent;
+        }
+    }
+
+    /**
+     * Move the entries of right into left and take right out of the leaf chain
+     */
+    private void mergeLeaves(L left, L right) {
+        mergeEntries(left, right);
+        left.next = right.next;
+        if (right.next != null) {
+            right.next.previous = left;
+        }
+    }
+
+    /**
+     * Append the separator between left and right, then the keys and children of right, to left
+     * @param separator position of the separator between left and right in parent
+     */
+    private static <S> void mergeBranches(Branch<S> left, Branch<S> parent, int separator, Branch<S> right) {
+        copySeparator(parent.keys, separator, left.keys, left.keyCount);
+        System.arraycopy(right.keys, 0, left.keys, left.keyCount + 1, right.keyCount);
+        System.arraycopy(right.children, 0, left.children, left.keyCount + 1, right.keyCount + 1);
+        left.keyCount += right.keyCount + 1;
+    }
+
+    /**
+     * @return number of keys in the tree
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * @return number of levels, 0 for an empty tree
+     */
+    public int getHeight() {
+        return height;
+    }
+}
@@ -1,6 +1,12 @@
 package btree;
 
+import Utils.Utils.DuplicateKeyException;
+import Utils.Utils.KeyNotFoundException;
+import Utils.Utils.TreeIsEmptyException;
+
 import java.util.List;
+import java.util.PrimitiveIterator;
+import java.util.function.IntConsumer;
 
 //we aim to implement a B+tree.
 // We call the interface Btree just to make the name more concise
@@ -8,9 +14,50 @@ import java.util.List;
 public interface BTree {
 
     void load(String datafilename);
-    void insert(Integer key);
-    void delete(Integer key);
-    List<Integer> search(Integer key1, Integer key2);
+    void insert(int key);
+    void delete(int key);
+    List<Integer> search(int key1, int key2);
+
+    // streaming range search, for ranges too wide to materialize as a List
+    default void search(int key1, int key2, IntConsumer consumer) {
+        search(key1, key2).forEach(consumer::accept);
+    }
+    default PrimitiveIterator.OfInt searchIterator(int key1, int key2) {
+        return search(key1, key2).stream().mapToInt(Integer::intValue).iterator();
+    }
+
+    // boxed variants, kept for callers that still hold Integer keys
+    default void insert(Integer key) {
+        insert(key.intValue());
+    }
+    default void delete(Integer key) {
+        delete(key.intValue());
+    }
+    default List<Integer> search(Integer key1, Integer key2) {
+        return search(key1.intValue(), key2.intValue());
+    }
+
+    /**
+     * Apply a batch of mutations with the same outcome as applying them one by one in order,
+     * except that a rejected mutation is counted instead of thrown
+     * @param batch inserts and deletes, in the order they were issued
+     * @return number of mutations rejected, inserts of a present key or deletes of a missing one
+     */
+    default int applyBatch(UpdateBatch batch) {
+        int rejected = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            try {
+                if (batch.isInsert(i)) {
+                    insert(batch.getKey(i));
+                } else {
+                    delete(batch.getKey(i));
+                }
+            } catch (DuplicateKeyException | KeyNotFoundException | TreeIsEmptyException e) {
+                rejected++;
+            }
+        }
+        return rejected;
+    }
 
     void printTree();
     void dumpStatistics();
@@ -0,0 +1,146 @@
+package btree;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Fixed number of in-memory frames caching pages of a PageFile, replaced with the CLOCK policy.
+ *
+ * A page has to be pinned while it is used and unpinned afterwards, telling the pool whether it was
+ * changed. Pinned pages are never evicted; dirty pages are written back when evicted or flushed.
+ */
+class BufferPool {
+    private final PageFile file;
+    private final ByteBuffer[] frames;
+    private final int[] framePage; // page held by each frame, -1 if free
+    private final int[] pinCount;
+    private final boolean[] dirty;
+    private final boolean[] referenced; // CLOCK reference bit, set on every pin
+    private final Map<Integer, Integer> pageTable = new HashMap<>(); // page id -> frame
+    private int clockHand = 0;
+
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * @param file file the pages live in
+     * @param frameCount number of pages kept in memory
+     */
+    public BufferPool(PageFile file, int frameCount) {
+        this.file = file;
+        this.frames = new ByteBuffer[frameCount];
+        this.framePage = new int[frameCount];
+        this.pinCount = new int[frameCount];
+        this.dirty = new boolean[frameCount];
+        this.referenced = new boolean[frameCount];
+        for (int i = 0; i < frameCount; i++) {
+            frames[i] = ByteBuffer.allocate(file.getPageSize());
+        }
+        Arrays.fill(framePage, -1);
+    }
+
+    /**
+     * Pin a page, reading it from the file if it is not cached
+     * @param pageId page to pin
+     * @return the frame holding the page, valid until the page is unpinned
+     */
+    public ByteBuffer pin(int pageId) {
+        Integer frame = pageTable.get(pageId);
+        if (frame != null) {
+            hits++;
+        } else {
+            misses++;
+            frame = evict();
+            file.read(pageId, frames[frame]);
+            framePage[frame] = pageId;
+            pageTable.put(pageId, frame);
+        }
+        pinCount[frame]++;
+        referenced[frame] = true;
+        return frames[frame];
+    }
+
+    /**
+     * Allocate a new zero-filled page at the end of the file and cache it, it still has to be pinned to be used
+     * @return id of the new page
+     */
+    public int allocate() {
+        int pageId = file.allocate();
+        int frame = evict();
+        Arrays.fill(frames[frame].array(), (byte) 0);
+        framePage[frame] = pageId;
+        pageTable.put(pageId, frame);
+        referenced[frame] = true;
+        dirty[frame] = true;
+        return pageId;
+    }
+
+    /**
+     * @param pageId pinned page
+     * @param modified whether the page was changed while pinned
+     */
+    public void unpin(int pageId, boolean modified) {
+        int frame = pageTable.get(pageId);
+        if (pinCount[frame] == 0) {
+            throw new IllegalStateException("Page " + pageId + " is not pinned");
+        }
+        pinCount[frame]--;
+        dirty[frame] |= modified;
+    }
+
+    /**
+     * Write every dirty page back to the file
+     */
+    public void flush() {
+        for (int frame = 0; frame < frames.length; frame++) {
+            if (framePage[frame] != -1 && dirty[frame]) {
+                file.write(framePage[frame], frames[frame]);
+                dirty[frame] = false;
+            }
+        }
+    }
+
+    /**
+     * Find a frame for a new page with the CLOCK sweep, writing its old page back if needed
+     * @return the free frame
+     */
+    private int evict() {
+        // two full sweeps clear every reference bit, after that only pins can keep a frame
+        for (int step = 0; step < 2 * frames.length; step++) {
+            int frame = clockHand;
+            clockHand = (clockHand + 1) % frames.length;
+            if (framePage[frame] == -1) {
+                return frame;
+            }
+            if (pinCount[frame] > 0) {
+                continue;
+            }
+            if (referenced[frame]) {
+                referenced[frame] = false;
+                continue;
+            }
+            if (dirty[frame]) {
+                file.write(framePage[frame], frames[frame]);
+                dirty[frame] = false;
+            }
+            pageTable.remove(framePage[frame]);
+            framePage[frame] = -1;
+            return frame;
+        }
+        throw new IllegalStateException("Buffer pool exhausted, all " + frames.length + " frames are pinned");
+    }
+
+    public int getFrameCount() {
+        return frames.length;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+}
@@ -0,0 +1,268 @@
+package btree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Builds a B+ tree bottom-up from keys that arrive in strictly ascending order.
+ * Leaves are filled to the target fill factor as the keys stream in, and the
+ * index levels are stacked on top of the finished leaf level in one pass, so
+ * no key ever goes through a root-to-leaf descent or a split.
+ *
+ * Given a ForkJoinPool, addAll fills the leaves of a whole sorted input and finish packs
+ * every level in parallel tasks, each task building a contiguous run of nodes.
+ */
+class BulkLoader {
+    private static final int NODES_PER_TASK = 1024; // nodes a task builds before it is split no further
+
+    private final int degree;
+    private final KeySearch search;
+    private final int leafTarget; // keys per packed leaf
+    private final int leafMin; // fewest keys a leaf may hold without underflowing
+    private final int indexTarget; // children per packed index node
+    private final int indexMin; // fewest children an index node may hold
+
+    private final List<MandyTree.Node> leaves = new ArrayList<>();
+    private int[] lowKeys = new int[16]; // smallest key under each entry of leaves
+    private LeafNode current = null; // leaf currently being filled
+    private boolean empty = true;
+    private int lastKey;
+    private int keyCount = 0;
+    private int[] levelSizes = new int[0]; // nodes per level of the finished tree, leaves first
+    private final ForkJoinPool pool; // null to build on the calling thread
+
+    public BulkLoader(int degree, double fillFactor, KeySearch search) {
+        this(degree, fillFactor, search, null);
+    }
+
+    /**
+     * @param pool pool building the levels in parallel, null to build on the calling thread
+     */
+    public BulkLoader(int degree, double fillFactor, KeySearch search, ForkJoinPool pool) {
+        this.degree = degree;
+        this.search = search;
+        this.pool = pool;
+        // a leaf holds at most DEGREE keys, an index node at most DEGREE keys and DEGREE+1 children
+        this.leafMin = Math.max(1, (int) Math.ceil((degree - 1) / 2.0));
+        this.leafTarget = clamp((int) Math.ceil(degree * fillFactor), leafMin, degree);
+        this.indexMin = Math.max(2, (int) Math.ceil((degree - 1) / 2.0) + 1);
+        this.indexTarget = clamp((int) Math.ceil((degree + 1) * fillFactor), indexMin, degree + 1);
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(value, max));
+    }
+
+    /**
+     * Check whether key can be appended, i.e. it is strictly larger than every key added so far
+     * @param key next key of the input
+     */
+    public boolean accepts(int key) {
+        return empty || key > lastKey;
+    }
+
+    /**
+     * Append the next key of the sorted input
+     * @param key key larger than every key added so far
+     */
+    public void add(int key) {
+        if (!accepts(key)) {
+            throw new IllegalArgumentException("Bulk load input is not sorted at key " + key);
+        }
+        if (current == null || current.getKeyCount() == leafTarget) {
+            openLeaf();
+        }
+        current.appendKey(key);
+        keyCount++;
+        empty = false;
+        lastKey = key;
+    }
+
+    /**
+     * Add a whole sorted input at once, spread evenly over the leaves. With a pool, the leaves are
+     * filled by parallel tasks and only the leaf chain is stitched on the calling thread.
+     * @param keys strictly ascending keys
+     * @param count number of keys to take from the start of keys
+     */
+    public void addAll(int[] keys, int count) {
+        if (!empty) {
+            throw new IllegalStateException("addAll needs a loader no key was added to yet");
+        }
+        if (count == 0) {
+            return;
+        }
+        int leafCount = groupCount(count, leafTarget, leafMin);
+        LeafNode[] built = new LeafNode[leafCount];
+        lowKeys = new int[Math.max(lowKeys.length, leafCount)];
+        forEachRange(leafCount, (from, to) -> {
+            for (int g = from; g < to; g++) {
+                int start = (int) ((long) count * g / leafCount);
+                int end = (int) ((long) count * (g + 1) / leafCount);
+                // also compares the first key with the last key of the previous leaf
+                for (int i = Math.max(start, 1); i < end; i++) {
+                    if (keys[i] <= keys[i - 1]) {
+                        throw new IllegalArgumentException("Bulk load input is not sorted at key " + keys[i]);
+                    }
+                }
+                LeafNode leaf = new LeafNode(degree, search);
+                leaf.setKeys(keys, start, end - start);
+                built[g] = leaf;
+                lowKeys[g] = keys[start];
+            }
+        });
+        for (int g = 1; g < leafCount; g++) {
+            built[g - 1].setNext(built[g]);
+            built[g].setPrevious(built[g - 1]);
+        }
+        leaves.addAll(Arrays.asList(built));
+        current = built[leafCount - 1];
+        keyCount = count;
+        empty = false;
+        lastKey = keys[count - 1];
+    }
+
+    /**
+     * Finish the leaf level and build the index levels above it
+     * @return root of the new tree, or null if no key was added
+     */
+    public MandyTree.Node finish() {
+        if (empty) {
+            return null;
+        }
+        balanceLastLeaf();
+
+        MandyTree.Node[] level = leaves.toArray(new MandyTree.Node[0]);
+        int[] levelLowKeys = lowKeys;
+        levelSizes = new int[]{level.length};
+        while (level.length > 1) {
+            int groups = groupCount(level.length, indexTarget, indexMin);
+            MandyTree.Node[] children = level;
+            int[] childLowKeys = levelLowKeys;
+            MandyTree.Node[] parents = new MandyTree.Node[groups];
+            int[] parentLowKeys = new int[groups];
+            forEachRange(groups, (from, to) -> {
+                for (int g = from; g < to; g++) {
+                    // spread the children evenly so the last index node of a level is never underfull
+                    int start = (int) ((long) children.length * g / groups);
+                    int end = (int) ((long) children.length * (g + 1) / groups);
+                    IndexNode parent = new IndexNode(degree, search);
+                    parent.setChild(0, children[start]);
+                    for (int i = start + 1; i < end; i++) {
+                        parent.appendChild(childLowKeys[i], children[i]);
+                    }
+                    parents[g] = parent;
+                    parentLowKeys[g] = childLowKeys[start];
+                }
+            });
+            level = parents;
+            levelLowKeys = parentLowKeys;
+            levelSizes = Arrays.copyOf(levelSizes, levelSizes.length + 1);
+            levelSizes[levelSizes.length - 1] = groups;
+        }
+        return level[0];
+    }
+
+    /**
+     * Builds the nodes from (inclusive) to to (exclusive) of a level
+     */
+    private interface RangeAction {
+        void apply(int from, int to);
+    }
+
+    /**
+     * Run action over the nodes [0, count) of a level, split into parallel tasks if there is a pool
+     */
+    private void forEachRange(int count, RangeAction action) {
+        if (pool == null || count <= NODES_PER_TASK) {
+            action.apply(0, count);
+        } else {
+            pool.invoke(new RangeTask(action, 0, count));
+        }
+    }
+
+    private static class RangeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final RangeAction action;
+        private final int from;
+        private final int to;
+
+        RangeTask(RangeAction action, int from, int to) {
+            this.action = action;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= NODES_PER_TASK) {
+                action.apply(from, to);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new RangeTask(action, from, middle), new RangeTask(action, middle, to));
+        }
+    }
+
+    public int getKeyCount() {
+        return keyCount;
+    }
+
+    /**
+     * @return number of nodes on every level of the tree built by finish, leaves first
+     */
+    public int[] getLevelSizes() {
+        return levelSizes.clone();
+    }
+
+    /**
+     * Number of nodes to pack count entries into, so that no node goes below min or above the target
+     */
+    private static int groupCount(int count, int target, int min) {
+        int groups = (count + target - 1) / target;
+        return Math.max(1, Math.min(groups, count / min));
+    }
+
+    private void openLeaf() {
+        LeafNode leaf = new LeafNode(degree, search);
+        if (current != null) {
+            current.setNext(leaf);
+            leaf.setPrevious(current);
+            lowKeys[leaves.size() - 1] = current.getFirstLeafKey();
+        }
+        if (leaves.size() == lowKeys.length) {
+            lowKeys = Arrays.copyOf(lowKeys, lowKeys.length * 2);
+        }
+        leaves.add(leaf);
+        current = leaf;
+    }
+
+    /**
+     * The input rarely ends on a leaf boundary, so the last leaf may be underfull.
+     * Fold it into its left neighbour if both fit in one leaf, otherwise split the two evenly.
+     */
+    private void balanceLastLeaf() {
+        LeafNode last = current;
+        lowKeys[leaves.size() - 1] = last.getFirstLeafKey();
+        if (leaves.size() < 2 || last.getKeyCount() >= leafMin) {
+            return;
+        }
+        LeafNode previous = last.getPrevious();
+        int total = previous.getKeyCount() + last.getKeyCount();
+        if (total <= degree) {
+            previous.absorb(last);
+            previous.setNext(null);
+            leaves.remove(leaves.size() - 1);
+        } else {
+            // move the tail of previous over, so that last holds the upper half of both leaves
+            LeafNode merged = new LeafNode(degree, search);
+            previous.moveTailTo(total / 2, merged);
+            merged.absorb(last);
+            last.absorb(merged);
+            lowKeys[leaves.size() - 1] = last.getFirstLeafKey();
+        }
+    }
+}
@@ -0,0 +1,345 @@
+package btree;
+
+import Utils.Utils.DuplicateKeyException;
+import Utils.Utils.KeyNotFoundException;
+import Utils.Utils.TreeIsEmptyException;
+
+import java.util.Arrays;
+import java.util.function.BiConsumer;
+
+/**
+ * B+ tree mapping byte[] keys, in unsigned lexicographic order, to values, with compressed keys.
+ *
+ * Leaves are prefix compressed: the bytes every key of a leaf starts with are stored once per leaf,
+ * each entry only keeps the rest of its key. Separators are suffix truncated: a leaf split pushes up the
+ * shortest key that still tells the last key on the left from the first key on the right, not a whole key.
+ * Composite or string keys sharing long prefixes thus cost little more than the bytes that tell them apart,
+ * and index nodes stay small, which keeps more of the tree in cache.
+ *
+ * Otherwise the tree works like GenericMandyTree, with the index nodes of AbstractMandyTree. Keys are
+ * copied on insert, the caller may reuse its arrays; keys handed out by search are new arrays.
+ * @param <V> value type
+ */
+public class BytesMandyTree<V> extends AbstractMandyTree<byte[][], BytesMandyTree.Leaf>
+        implements KeyValueTree<byte[], V> {
+    private static final byte[] EMPTY = new byte[0];
+
+    // full keys and values of two leaves, for splits and merges that compress the leaves anew
+    private final byte[][] scratchKeys;
+    private final Object[] scratchValues;
+
+    static final class Leaf extends AbstractMandyTree.Leaf {
+        byte[] prefix = EMPTY; // common prefix of every key in the leaf
+        final byte[][] suffixes; // the keys without the prefix
+
+        Leaf(int degree) {
+            super(degree);
+            suffixes = new byte[degree + 1][];
+        }
+
+        byte[] key(int index) {
+            byte[] suffix = suffixes[index];
+            byte[] key = Arrays.copyOf(prefix, prefix.length + suffix.length);
+            System.arraycopy(suffix, 0, key, prefix.length, suffix.length);
+            return key;
+        }
+
+        /**
+         * @return position of the first key >= key
+         */
+        int lowerBound(byte[] key) {
+            int shared = commonPrefixLength(prefix, key);
+            if (shared < prefix.length) {
+                // key leaves the prefix, so it sorts before or after every key of the leaf
+                boolean before = shared == key.length || (key[shared] & 0xff) < (prefix[shared] & 0xff);
+                return before ? 0 : keyCount;
+            }
+            int low = 0;
+            int high = keyCount;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                byte[] suffix = suffixes[mid];
+                if (Arrays.compareUnsigned(suffix, 0, suffix.length, key, prefix.length, key.length) < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        boolean matches(int index, byte[] key) {
+            if (index >= keyCount || key.length != prefix.length + suffixes[index].length) {
+                return false;
+            }
+            return Arrays.equals(prefix, 0, prefix.length, key, 0, prefix.length)
+                    && Arrays.equals(suffixes[index], 0, suffixes[index].length, key, prefix.length, key.length);
+        }
+
+        void insert(int index, byte[] key, Object value) {
+            int shared = commonPrefixLength(prefix, key);
+            if (shared < prefix.length) {
+                // the new key does not share the whole prefix, move the difference back into the suffixes
+                byte[] cut = Arrays.copyOfRange(prefix, shared, prefix.length);
+                for (int i = 0; i < keyCount; i++) {
+                    byte[] suffix = Arrays.copyOf(cut, cut.length + suffixes[i].length);
+                    System.arraycopy(suffixes[i], 0, suffix, cut.length, suffixes[i].length);
+                    suffixes[i] = suffix;
+                }
+                prefix = Arrays.copyOf(prefix, shared);
+            }
+            System.arraycopy(suffixes, index, suffixes, index + 1, keyCount - index);
+            System.arraycopy(values, index, values, index + 1, keyCount - index);
+            suffixes[index] = Arrays.copyOfRange(key, prefix.length, key.length);
+            values[index] = value;
+            keyCount++;
+        }
+
+        void removeAt(int index) {
+            System.arraycopy(suffixes, index + 1, suffixes, index, keyCount - index - 1);
+            System.arraycopy(values, index + 1, values, index, keyCount - index - 1);
+            keyCount--;
+            suffixes[keyCount] = null;
+            values[keyCount] = null;
+        }
+
+        /**
+         * Write the full keys and the values of the leaf to keys and values
+         * @return number of entries written
+         */
+        int copyEntries(byte[][] keys, Object[] values, int offset) {
+            for (int i = 0; i < keyCount; i++) {
+                keys[offset + i] = key(i);
+                values[offset + i] = this.values[i];
+            }
+            return keyCount;
+        }
+
+        /**
+         * Replace the entries of the leaf, compressing them with their longest common prefix
+         * @param keys full keys, sorted
+         */
+        void setEntries(byte[][] keys, Object[] values, int from, int count) {
+            // the keys are sorted, so the first and the last share the prefix of all of them
+            prefix = count == 0 ? EMPTY
+                    : Arrays.copyOf(keys[from], commonPrefixLength(keys[from], keys[from + count - 1]));
+            for (int i = 0; i < count; i++) {
+                suffixes[i] = Arrays.copyOfRange(keys[from + i], prefix.length, keys[from + i].length);
+                this.values[i] = values[from + i];
+            }
+            Arrays.fill(suffixes, count, Math.max(count, keyCount), null);
+            Arrays.fill(this.values, count, Math.max(count, keyCount), null);
+            keyCount = count;
+        }
+    }
+
+    /**
+     * @param DEGREE most keys a node holds, at least 2
+     */
+    public BytesMandyTree(int DEGREE) {
+        super(DEGREE);
+        this.scratchKeys = new byte[2 * DEGREE + 2][];
+        this.scratchValues = new Object[2 * DEGREE + 2];
+    }
+
+    @Override
+    byte[][] newSeparators(int length) {
+        return new byte[length][];
+    }
+
+    @Override
+    Leaf newLeaf() {
+        return new Leaf(DEGREE);
+    }
+
+    private static int commonPrefixLength(byte[] a, byte[] b) {
+        int mismatch = Arrays.mismatch(a, b);
+        return mismatch < 0 ? a.length : mismatch;
+    }
+
+    /**
+     * Shortest key s with left < s <= right, a prefix of right
+     */
+    private static byte[] shortestSeparator(byte[] left, byte[] right) {
+        // right is larger, so it is longer than the common prefix and differs right after it
+        return Arrays.copyOf(right, commonPrefixLength(left, right) + 1);
+    }
+
+    /**
+     * @return position of the first separator > key, which is the child holding key
+     */
+    private static int upperBound(Branch<byte[][]> branch, byte[] key) {
+        int low = 0;
+        int high = branch.keyCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (Arrays.compareUnsigned(branch.keys[mid], key) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Descend to the leaf of key without remembering the path, for reads
+     */
+    private Leaf findLeaf(byte[] key) {
+        Node node = root;
+        while (node instanceof Branch) {
+            Branch<byte[][]> branch = asBranch(node);
+            node = branch.children[upperBound(branch, key)];
+        }
+        return (Leaf) node;
+    }
+
+    /**
+     * Descend to the leaf of key, remembering the path for a split or merge
+     */
+    private Leaf descend(byte[] key) {
+        pathLength = 0;
+        Node node = root;
+        while (node instanceof Branch) {
+            Branch<byte[][]> branch = asBranch(node);
+            node = pushPath(branch, upperBound(branch, key));
+        }
+        return (Leaf) node;
+    }
+
+    @Override
+    public void insert(byte[] key, V value) {
+        if (root == null) {
+            insertIntoEmpty(key, value);
+            return;
+        }
+        Leaf leaf = descend(key);
+        int index = leaf.lowerBound(key);
+        if (leaf.matches(index, key)) {
+            throw new DuplicateKeyException(Arrays.toString(key));
+        }
+        leaf.insert(index, key, value);
+        entryAdded(leaf);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V put(byte[] key, V value) {
+        if (root == null) {
+            insertIntoEmpty(key, value);
+            return null;
+        }
+        Leaf leaf = descend(key);
+        int index = leaf.lowerBound(key);
+        if (leaf.matches(index, key)) {
+            V previous = (V) leaf.values[index];
+            leaf.values[index] = value;
+            return previous;
+        }
+        leaf.insert(index, key, value);
+        entryAdded(leaf);
+        return null;
+    }
+
+    private void insertIntoEmpty(byte[] key, V value) {
+        Leaf leaf = newLeaf();
+        leaf.insert(0, key, value);
+        plantRoot(leaf);
+    }
+
+    /**
+     * Split the entries compressing both halves on their own, the separator pushed up is the shortest one
+     * between them
+     */
+    @Override
+    void splitEntries(Leaf leaf, Leaf right, byte[][] separator) {
+        int count = leaf.copyEntries(scratchKeys, scratchValues, 0);
+        int split = count / 2;
+        leaf.setEntries(scratchKeys, scratchValues, 0, split);
+        right.setEntries(scratchKeys, scratchValues, split, count - split);
+        separator[0] = shortestSeparator(scratchKeys[split - 1], scratchKeys[split]);
+        clearScratch(count);
+    }
+
+    private void clearScratch(int count) {
+        Arrays.fill(scratchKeys, 0, count, null);
+        Arrays.fill(scratchValues, 0, count, null);
+    }
+
+    @Override
+    void borrowLast(Leaf from, Leaf leaf, byte[][] separators, int index) {
+        byte[] key = from.key(from.keyCount - 1);
+        Object value = from.values[from.keyCount - 1];
+        from.removeAt(from.keyCount - 1);
+        leaf.insert(0, key, value);
+        separators[index] = shortestSeparator(from.key(from.keyCount - 1), key);
+    }
+
+    @Override
+    void borrowFirst(Leaf from, Leaf leaf, byte[][] separators, int index) {
+        byte[] key = from.key(0);
+        leaf.insert(leaf.keyCount, key, from.values[0]);
+        from.removeAt(0);
+        separators[index] = shortestSeparator(key, from.key(0));
+    }
+
+    /**
+     * Merge the entries compressed with their common prefix
+     */
+    @Override
+    void mergeEntries(Leaf left, Leaf right) {
+        int count = left.copyEntries(scratchKeys, scratchValues, 0);
+        count += right.copyEntries(scratchKeys, scratchValues, count);
+        left.setEntries(scratchKeys, scratchValues, 0, count);
+        clearScratch(count);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(byte[] key) {
+        if (root == null) {
+            return null;
+        }
+        Leaf leaf = findLeaf(key);
+        int index = leaf.lowerBound(key);
+        return leaf.matches(index, key) ? (V) leaf.values[index] : null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V delete(byte[] key) {
+        if (root == null) {
+            throw new TreeIsEmptyException();
+        }
+        Leaf leaf = descend(key);
+        int index = leaf.lowerBound(key);
+        if (!leaf.matches(index, key)) {
+            throw new KeyNotFoundException(Arrays.toString(key));
+        }
+        V value = (V) leaf.values[index];
+        leaf.removeAt(index);
+        entryRemoved(leaf);
+        return value;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void search(byte[] key1, byte[] key2, BiConsumer<? super byte[], ? super V> consumer) {
+        if (root == null) {
+            throw new TreeIsEmptyException();
+        }
+        Leaf leaf = findLeaf(key1);
+        int index = leaf.lowerBound(key1);
+        while (leaf != null) {
+            for (; index < leaf.keyCount; index++) {
+                byte[] key = leaf.key(index);
+                if (Arrays.compareUnsigned(key, key2) > 0) {
+                    return;
+                }
+                consumer.accept(key, (V) leaf.values[index]);
+            }
+            leaf = (Leaf) leaf.next;
+            index = 0;
+        }
+    }
+}
@@ -0,0 +1,365 @@
+package btree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.IntConsumer;
+
+import Utils.Utils.DuplicateKeyException;
+import Utils.Utils.KeyNotFoundException;
+import Utils.RecordReader;
+
+/**
+ * Thread-safe B+ tree built on optimistic lock coupling with B-link right links.
+ *
+ * Every node carries a StampedLock used as a version latch, a right link to its sibling on the same
+ * level and a high key, the exclusive upper bound of the keys it may hold. Readers never take a latch:
+ * they read a node optimistically and validate its version afterwards, retrying only that node if a
+ * writer got in between. A split moves the upper half of a node to a new right sibling before the
+ * separator reaches the parent, so a reader that arrives at a node through a stale pointer finds its key
+ * beyond the high key and simply follows the right link.
+ *
+ * Writers descend the same way and only write-latch the leaf they change; a split additionally latches
+ * the parent, one level at a time, bottom-up and left to right, so latches never deadlock.
+ * Deletes never merge nodes, an underfull node just stays underfull.
+ */
+public class ConcurrentMandyTree implements BTree {
+    private final int DEGREE;
+    private final KeySearch KEY_SEARCH;
+    private volatile CNode root;
+    private final Object rootLatch = new Object();
+
+    public ConcurrentMandyTree(int DEGREE) {
+        this(DEGREE, KeySearch.BRANCHLESS);
+    }
+
+    public ConcurrentMandyTree(int DEGREE, KeySearch KEY_SEARCH) {
+        this.DEGREE = DEGREE;
+        this.KEY_SEARCH = KEY_SEARCH;
+        this.root = new CNode(0, DEGREE);
+    }
+
+    /**
+     * Node of the concurrent tree. Leaves are level 0 and have no children.
+     * Fields are only written under the write latch, readers use optimistic reads and validate.
+     */
+    static final class CNode {
+        final StampedLock latch = new StampedLock();
+        final int level;
+        final int[] keys;
+        final CNode[] children; // null for leaves
+        int keyCount;
+        CNode right; // next node on the same level
+        long highKey = Long.MAX_VALUE; // every key of this node is below highKey
+
+        CNode(int level, int degree) {
+            this.level = level;
+            this.keys = new int[degree + 1];
+            this.children = level == 0 ? null : new CNode[degree + 2];
+        }
+
+        boolean isLeaf() {
+            return level == 0;
+        }
+
+        /**
+         * Wait until no writer holds the latch and return a stamp to validate the read with
+         */
+        long readStamp() {
+            long stamp = latch.tryOptimisticRead();
+            while (stamp == 0) {
+                Thread.onSpinWait();
+                stamp = latch.tryOptimisticRead();
+            }
+            return stamp;
+        }
+
+        /**
+         * Key count as seen by an optimistic reader, possibly torn but always safe for indexing keys
+         */
+        int readKeyCount() {
+            return Math.min(Math.max(keyCount, 0), keys.length);
+        }
+    }
+
+    /**
+     * Descend to the leaf that covers key without taking any latch
+     * @param key key to look for
+     * @param path if not null, receives the last node visited on every index level, indexed by level
+     */
+    private CNode findLeaf(int key, CNode[] path) {
+        CNode node = root;
+        while (true) {
+            long stamp = node.readStamp();
+            CNode right = node.right;
+            if (key >= node.highKey) {
+                // split since we got here, the key moved to the right sibling
+                if (node.latch.validate(stamp) && right != null) {
+                    node = right;
+                }
+                continue;
+            }
+            if (node.isLeaf()) {
+                return node;
+            }
+            int childIndex = KEY_SEARCH.upperBound(node.keys, node.readKeyCount(), key);
+            CNode child = node.children[childIndex];
+            if (child == null || !node.latch.validate(stamp)) {
+                continue;
+            }
+            if (path != null && node.level < path.length) {
+                path[node.level] = node;
+            }
+            node = child;
+        }
+    }
+
+    /**
+     * Write-latch node, then follow right links (latching the next before releasing the previous)
+     * until reaching the node whose range covers key
+     * @return the latched node covering key
+     */
+    private CNode latchCovering(CNode node, int key) {
+        node.latch.writeLock();
+        while (key >= node.highKey) {
+            CNode right = node.right;
+            right.latch.writeLock();
+            node.latch.tryUnlockWrite();
+            node = right;
+        }
+        return node;
+    }
+
+    /**
+     * Insert key to tree
+     * @param key
+     */
+    @Override
+    public void insert(int key) {
+        CNode[] path = new CNode[root.level + 1];
+        CNode node = latchCovering(findLeaf(key, path), key);
+
+        int index = KEY_SEARCH.lowerBound(node.keys, node.keyCount, key);
+        if (index < node.keyCount && node.keys[index] == key) {
+            node.latch.tryUnlockWrite();
+            throw new DuplicateKeyException(String.valueOf(key));
+        }
+        System.arraycopy(node.keys, index, node.keys, index + 1, node.keyCount - index);
+        node.keys[index] = key;
+        node.keyCount++;
+
+        // split while the latched node overflows, the separator goes one level up each time
+        while (node.keyCount > DEGREE) {
+            CNode sibling = new CNode(node.level, DEGREE);
+            int separator = split(node, sibling);
+
+            CNode parent = node.level + 1 < path.length ? path[node.level + 1] : null;
+            if (parent == null) {
+                synchronized (rootLatch) {
+                    if (root == node) {
+                        // root split, the tree grows by one level
+                        CNode newRoot = new CNode(node.level + 1, DEGREE);
+                        newRoot.children[0] = node;
+                        newRoot.children[1] = sibling;
+                        newRoot.keys[0] = separator;
+                        newRoot.keyCount = 1;
+                        root = newRoot;
+                        node.latch.tryUnlockWrite();
+                        return;
+                    }
+                }
+                // another writer grew the tree since we descended, look the parent up from the new root
+                parent = findLevel(separator, node.level + 1);
+            }
+            parent = latchCovering(parent, separator);
+            node.latch.tryUnlockWrite();
+
+            int position = KEY_SEARCH.lowerBound(parent.keys, parent.keyCount, separator);
+            System.arraycopy(parent.keys, position, parent.keys, position + 1, parent.keyCount - position);
+            System.arraycopy(parent.children, position + 1, parent.children, position + 2, parent.keyCount - position);
+            parent.keys[position] = separator;
+            parent.children[position + 1] = sibling;
+            parent.keyCount++;
+            node = parent;
+        }
+        node.latch.tryUnlockWrite();
+    }
+
+    /**
+     * Move the upper half of a latched, overflowing node into sibling and link sibling in on its right.
+     * sibling only becomes reachable through the right link once everything is in place.
+     * @return separator to insert into the parent
+     */
+    private int split(CNode node, CNode sibling) {
+        int splitIndex = node.keyCount / 2;
+        int separator = node.keys[splitIndex];
+        if (node.isLeaf()) {
+            sibling.keyCount = node.keyCount - splitIndex;
+            System.arraycopy(node.keys, splitIndex, sibling.keys, 0, sibling.keyCount);
+        } else {
+            // the middle key moves up, it does not stay in either half
+            sibling.keyCount = node.keyCount - splitIndex - 1;
+            System.arraycopy(node.keys, splitIndex + 1, sibling.keys, 0, sibling.keyCount);
+            System.arraycopy(node.children, splitIndex + 1, sibling.children, 0, sibling.keyCount + 1);
+            Arrays.fill(node.children, splitIndex + 1, node.keyCount + 1, null);
+        }
+        sibling.highKey = node.highKey;
+        sibling.right = node.right;
+        node.keyCount = splitIndex;
+        node.highKey = separator;
+        node.right = sibling;
+        return separator;
+    }
+
+    /**
+     * Descend from the root to the node on the given level whose range covers key
+     */
+    private CNode findLevel(int key, int level) {
+        while (true) {
+            CNode node = root;
+            while (node.level > level) {
+                long stamp = node.readStamp();
+                CNode next;
+                if (key >= node.highKey) {
+                    next = node.right;
+                } else {
+                    next = node.children[KEY_SEARCH.upperBound(node.keys, node.readKeyCount(), key)];
+                }
+                if (next != null && node.latch.validate(stamp)) {
+                    node = next;
+                }
+            }
+            if (node.level == level) {
+                return node;
+            }
+        }
+    }
+
+    /**
+     * Delete a key from the tree. Only the leaf is latched, nodes are never merged.
+     * @param key key to be deleted
+     */
+    @Override
+    public void delete(int key) {
+        CNode leaf = latchCovering(findLeaf(key, null), key);
+        int index = KEY_SEARCH.lowerBound(leaf.keys, leaf.keyCount, key);
+        if (index == leaf.keyCount || leaf.keys[index] != key) {
+            leaf.latch.tryUnlockWrite();
+            throw new KeyNotFoundException(String.valueOf(key));
+        }
+        System.arraycopy(leaf.keys, index + 1, leaf.keys, index, leaf.keyCount - index - 1);
+        leaf.keyCount--;
+        leaf.latch.tryUnlockWrite();
+    }
+
+    /**
+     * Search tree by range
+     * @param key1 First key
+     * @param key2 Second key
+     * @return List of keys
+     */
+    @Override
+    public List<Integer> search(int key1, int key2) {
+        List<Integer> result = new ArrayList<>();
+        search(key1, key2, result::add);
+        return result;
+    }
+
+    /**
+     * Search tree by range without latching. Each leaf is copied out optimistically and only handed to
+     * consumer once the copy validated, so consumer never sees a torn leaf. Keys inserted or deleted
+     * concurrently may or may not show up, but no key is reported twice.
+     * @param key1 First key
+     * @param key2 Second key
+     * @param consumer receives the keys in ascending order
+     */
+    @Override
+    public void search(int key1, int key2, IntConsumer consumer) {
+        int[] buffer = new int[DEGREE + 1];
+        long from = key1;
+        CNode leaf = findLeaf(key1, null);
+        while (leaf != null && from <= key2) {
+            long stamp = leaf.readStamp();
+            int keyCount = leaf.readKeyCount();
+            int start = KEY_SEARCH.lowerBound(leaf.keys, keyCount, (int) from);
+            int copied = 0;
+            for (int i = start; i < keyCount && leaf.keys[i] <= key2; i++) {
+                buffer[copied++] = leaf.keys[i];
+            }
+            long highKey = leaf.highKey;
+            CNode right = leaf.right;
+            if (!leaf.latch.validate(stamp)) {
+                continue;
+            }
+            for (int i = 0; i < copied; i++) {
+                consumer.accept(buffer[i]);
+            }
+            // keys that moved right after the copy were already reported, start the next leaf at the fence
+            from = Math.max(from, highKey);
+            leaf = right;
+        }
+    }
+
+    @Override
+    public void load(String datafilename) {
+        RecordReader.readKeys(datafilename, this::insert);
+    }
+
+    /**
+     * Print tree from root. Not synchronized with writers, meant for debugging a quiet tree.
+     */
+    @Override
+    public void printTree() {
+        printTree(root);
+    }
+
+    private void printTree(CNode node) {
+        System.out.print("[");
+        for (int i = 0; i < node.keyCount; i++) {
+            System.out.print(node.keys[i]);
+            if (i != node.keyCount - 1) {
+                System.out.print(", ");
+            }
+        }
+        if (node.isLeaf()) {
+            System.out.print("]");
+            return;
+        }
+        System.out.println("]");
+        for (int i = 0; i <= node.keyCount; i++) {
+            printTree(node.children[i]);
+        }
+        System.out.println();
+    }
+
+    /**
+     * Print statistics of the current tree, walking every level along the right links
+     */
+    @Override
+    public void dumpStatistics() {
+        long nodes = 0;
+        long dataEntries = 0;
+        long indexEntries = 0;
+        CNode levelStart = root;
+        int height = levelStart.level + 1;
+        while (levelStart != null) {
+            for (CNode node = levelStart; node != null; node = node.right) {
+                nodes++;
+                if (node.isLeaf()) {
+                    dataEntries += node.keyCount;
+                } else {
+                    indexEntries += node.keyCount;
+                }
+            }
+            levelStart = levelStart.isLeaf() ? null : levelStart.children[0];
+        }
+        System.out.println("Statistics of the B+ Tree:");
+        System.out.println("Total number of nodes: " + nodes);
+        System.out.println("Total number of data entries: " + dataEntries);
+        System.out.println("Total number of index entries: " + indexEntries);
+        System.out.print("Average fill factor: ");
+        System.out.println(String.format("%.2f", 100.0 * (dataEntries + indexEntries) / (nodes * DEGREE)) + "%");
+        System.out.println("Height of tree: " + height);
+    }
+}
@@ -0,0 +1,464 @@
+package btree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.function.IntConsumer;
+
+import Utils.Utils.DuplicateKeyException;
+import Utils.Utils.KeyNotFoundException;
+import Utils.RecordReader;
+
+/**
+ * Copy-on-write B+ tree: nodes are never changed once published. A mutation copies the nodes on the
+ * path from the leaf up to the root, shares every other node with the previous version, and publishes
+ * the new version with a single volatile write.
+ *
+ * Readers take a Snapshot, an O(1) handle on the version current at that moment, and scan it without
+ * any latch while writers keep going; the scan sees exactly the keys of that version. An old version is
+ * ordinary garbage as soon as no snapshot refers to it any more. Writers are serialized among themselves.
+ *
+ * Leaves have no sibling links, a link would force every leaf to the left to be copied as well, so range
+ * scans walk the tree with a stack instead of following a leaf chain. Node arrays are sized to their
+ * content, a copy costs as much as the keys it holds. Deletes never merge nodes; an emptied node is
+ * taken out of its parent, and a root left with a single child is replaced by that child.
+ */
+public class CowMandyTree implements BTree {
+    private final int DEGREE;
+    private final KeySearch KEY_SEARCH;
+    private final Object writeLatch = new Object();
+    private volatile Snapshot current;
+
+    public CowMandyTree(int DEGREE) {
+        this(DEGREE, KeySearch.BRANCHLESS);
+    }
+
+    public CowMandyTree(int DEGREE, KeySearch KEY_SEARCH) {
+        if (DEGREE < 2) {
+            throw new IllegalArgumentException("DEGREE must be at least 2, got " + DEGREE);
+        }
+        this.DEGREE = DEGREE;
+        this.KEY_SEARCH = KEY_SEARCH;
+        this.current = new Snapshot(new Leaf(new int[0]), 0, 0, KEY_SEARCH);
+    }
+
+    /**
+     * Immutable node, keys holds exactly the keys of the node
+     */
+    private abstract static class Node {
+        final int[] keys;
+
+        Node(int[] keys) {
+            this.keys = keys;
+        }
+    }
+
+    private static final class Leaf extends Node {
+        Leaf(int[] keys) {
+            super(keys);
+        }
+    }
+
+    private static final class Branch extends Node {
+        final Node[] children; // children[i] holds the keys below keys[i], one more child than keys
+
+        Branch(int[] keys, Node[] children) {
+            super(keys);
+            this.children = children;
+        }
+    }
+
+    /**
+     * A version of the tree. It never changes, so it can be read from any thread for as long as it is held.
+     */
+    public static final class Snapshot {
+        private final Node root;
+        private final int height;
+        private final int size;
+        private final long version;
+        private final KeySearch search;
+
+        private Snapshot(Node root, int size, long version, KeySearch search) {
+            this.root = root;
+            this.size = size;
+            this.version = version;
+            this.search = search;
+            int levels = 1;
+            for (Node node = root; node instanceof Branch; node = ((Branch) node).children[0]) {
+                levels++;
+            }
+            this.height = levels;
+        }
+
+        /**
+         * @return number of keys in this version
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * @return number of mutations applied to the tree before this version was published
+         */
+        public long getVersion() {
+            return version;
+        }
+
+        /**
+         * Search this version by range
+         * @param key1 First key
+         * @param key2 Second key
+         * @return List of keys
+         */
+        public List<Integer> search(int key1, int key2) {
+            List<Integer> result = new ArrayList<>();
+            search(key1, key2, result::add);
+            return result;
+        }
+
+        /**
+         * Search this version by range without collecting the keys
+         * @param key1 First key
+         * @param key2 Second key
+         * @param consumer receives the keys in ascending order
+         */
+        public void search(int key1, int key2, IntConsumer consumer) {
+            PrimitiveIterator.OfInt keys = searchIterator(key1, key2);
+            while (keys.hasNext()) {
+                consumer.accept(keys.nextInt());
+            }
+        }
+
+        /**
+         * Search this version by range lazily, the tree is only walked as far as the iterator is consumed
+         * @param key1 First key
+         * @param key2 Second key
+         * @return iterator over the keys in ascending order
+         */
+        public PrimitiveIterator.OfInt searchIterator(int key1, int key2) {
+            return new RangeIterator(this, key1, key2);
+        }
+
+        /**
+         * Write the keys of this version to an immutable snapshot file that MappedSnapshot.open can serve,
+         * a point-in-time backup taken while writers keep going
+         * @param fileName snapshot file, overwritten if it exists
+         */
+        public void export(String fileName) {
+            MappedSnapshot.write(fileName, searchIterator(Integer.MIN_VALUE, Integer.MAX_VALUE),
+                    MappedSnapshot.DEFAULT_FANOUT);
+        }
+    }
+
+    /**
+     * Iterator over the keys of a version in [key1, key2], keeping the branches above the current leaf on a stack
+     */
+    private static final class RangeIterator implements PrimitiveIterator.OfInt {
+        private final Branch[] branches;
+        private final int[] nextChild; // next child to visit in each branch of the stack
+        private final KeySearch search;
+        private final int upperKey;
+        private int depth = 0; // number of branches on the stack
+        private int[] keys; // keys of the current leaf, null when the walk is done
+        private int index;
+
+        RangeIterator(Snapshot snapshot, int key1, int key2) {
+            this.branches = new Branch[snapshot.height - 1];
+            this.nextChild = new int[snapshot.height - 1];
+            this.search = snapshot.search;
+            this.upperKey = key2;
+            Node node = snapshot.root;
+            while (node instanceof Branch) {
+                Branch branch = (Branch) node;
+                int slot = search.upperBound(branch.keys, branch.keys.length, key1);
+                push(branch, slot + 1);
+                node = branch.children[slot];
+            }
+            keys = node.keys;
+            index = search.lowerBound(keys, keys.length, key1);
+            skipExhaustedLeaves();
+        }
+
+        private void push(Branch branch, int next) {
+            branches[depth] = branch;
+            nextChild[depth] = next;
+            depth++;
+        }
+
+        private void skipExhaustedLeaves() {
+            while (keys != null && index >= keys.length) {
+                keys = nextLeaf();
+                index = 0;
+            }
+        }
+
+        /**
+         * @return keys of the leaf right of the current one, null after the last leaf
+         */
+        private int[] nextLeaf() {
+            while (depth > 0) {
+                Branch branch = branches[depth - 1];
+                int next = nextChild[depth - 1];
+                if (next > branch.keys.length) {
+                    depth--;
+                    continue;
+                }
+                nextChild[depth - 1]++;
+                Node node = branch.children[next];
+                while (node instanceof Branch) {
+                    push((Branch) node, 1);
+                    node = ((Branch) node).children[0];
+                }
+                return node.keys;
+            }
+            return null;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return keys != null && keys[index] <= upperKey;
+        }
+
+        @Override
+        public int nextInt() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            int key = keys[index++];
+            skipExhaustedLeaves();
+            return key;
+        }
+    }
+
+    /**
+     * @return the current version, which stays readable however the tree changes afterwards
+     */
+    public Snapshot snapshot() {
+        return current;
+    }
+
+    /**
+     * Descend to the leaf of key, remembering the branches passed and the child taken in each
+     * @param path receives the branches from the root down
+     * @param slots receives the child taken in each branch of path
+     */
+    private Leaf descend(Snapshot snapshot, int key, Branch[] path, int[] slots) {
+        Node node = snapshot.root;
+        int depth = 0;
+        while (node instanceof Branch) {
+            Branch branch = (Branch) node;
+            int slot = KEY_SEARCH.upperBound(branch.keys, branch.keys.length, key);
+            path[depth] = branch;
+            slots[depth] = slot;
+            depth++;
+            node = branch.children[slot];
+        }
+        return (Leaf) node;
+    }
+
+    private void publish(Snapshot base, Node root, int size) {
+        current = new Snapshot(root, size, base.version + 1, KEY_SEARCH);
+    }
+
+    /**
+     * Insert key to tree
+     * @param key
+     */
+    @Override
+    public void insert(int key) {
+        synchronized (writeLatch) {
+            Snapshot base = current;
+            Branch[] path = new Branch[base.height - 1];
+            int[] slots = new int[base.height - 1];
+            Leaf leaf = descend(base, key, path, slots);
+            int count = leaf.keys.length;
+            int index = KEY_SEARCH.lowerBound(leaf.keys, count, key);
+            if (index < count && leaf.keys[index] == key) {
+                throw new DuplicateKeyException(String.valueOf(key));
+            }
+            int[] keys = new int[count + 1];
+            System.arraycopy(leaf.keys, 0, keys, 0, index);
+            keys[index] = key;
+            System.arraycopy(leaf.keys, index, keys, index + 1, count - index);
+
+            if (keys.length <= DEGREE) {
+                publish(base, copyPath(path, slots, new Leaf(keys), 0, null), base.size + 1);
+                return;
+            }
+            // split the copy, the upper half goes to a new right sibling
+            int splitIndex = keys.length / 2;
+            Leaf left = new Leaf(Arrays.copyOfRange(keys, 0, splitIndex));
+            Leaf right = new Leaf(Arrays.copyOfRange(keys, splitIndex, keys.length));
+            publish(base, copyPath(path, slots, left, keys[splitIndex], right), base.size + 1);
+        }
+    }
+
+    /**
+     * Copy the branches of path bottom-up, each with its child on the path replaced by the copy below it
+     * @param child copy of the node the path ends in
+     * @param separator separator between child and right, if right is not null
+     * @param right new right sibling of child split off the copy, null if it did not split
+     * @return root of the new version
+     */
+    private Node copyPath(Branch[] path, int[] slots, Node child, int separator, Node right) {
+        for (int depth = path.length - 1; depth >= 0; depth--) {
+            Branch parent = path[depth];
+            int slot = slots[depth];
+            int count = parent.keys.length;
+            if (right == null) {
+                // the keys did not change, share them
+                Node[] children = parent.children.clone();
+                children[slot] = child;
+                child = new Branch(parent.keys, children);
+                continue;
+            }
+
+            int[] keys = new int[count + 1];
+            Node[] children = new Node[count + 2];
+            System.arraycopy(parent.keys, 0, keys, 0, slot);
+            keys[slot] = separator;
+            System.arraycopy(parent.keys, slot, keys, slot + 1, count - slot);
+            System.arraycopy(parent.children, 0, children, 0, slot);
+            children[slot] = child;
+            children[slot + 1] = right;
+            System.arraycopy(parent.children, slot + 1, children, slot + 2, count - slot);
+            if (keys.length <= DEGREE) {
+                child = new Branch(keys, children);
+                right = null;
+                continue;
+            }
+
+            // split the copy, the middle key moves up instead of staying in either half
+            int splitIndex = keys.length / 2;
+            separator = keys[splitIndex];
+            child = new Branch(Arrays.copyOfRange(keys, 0, splitIndex), Arrays.copyOfRange(children, 0, splitIndex + 1));
+            right = new Branch(Arrays.copyOfRange(keys, splitIndex + 1, keys.length),
+                    Arrays.copyOfRange(children, splitIndex + 1, children.length));
+        }
+        if (right == null) {
+            return child;
+        }
+        // the root split, grow the tree by one level
+        return new Branch(new int[]{separator}, new Node[]{child, right});
+    }
+
+    /**
+     * Delete a key from the tree
+     * @param key key to be deleted
+     */
+    @Override
+    public void delete(int key) {
+        synchronized (writeLatch) {
+            Snapshot base = current;
+            Branch[] path = new Branch[base.height - 1];
+            int[] slots = new int[base.height - 1];
+            Leaf leaf = descend(base, key, path, slots);
+            int count = leaf.keys.length;
+            int index = KEY_SEARCH.lowerBound(leaf.keys, count, key);
+            if (index == count || leaf.keys[index] != key) {
+                throw new KeyNotFoundException(String.valueOf(key));
+            }
+            int[] keys = new int[count - 1];
+            System.arraycopy(leaf.keys, 0, keys, 0, index);
+            System.arraycopy(leaf.keys, index + 1, keys, index, count - index - 1);
+
+            // an emptied node is left out of the copy of its parent, null stands for it on the way up
+            Node child = keys.length > 0 ? new Leaf(keys) : null;
+            for (int depth = path.length - 1; depth >= 0; depth--) {
+                Branch parent = path[depth];
+                int slot = slots[depth];
+                if (child != null) {
+                    Node[] children = parent.children.clone();
+                    children[slot] = child;
+                    child = new Branch(parent.keys, children);
+                } else if (parent.keys.length > 0) {
+                    // the range of the dropped child goes to its left neighbour, or to the right one for the first child
+                    int separator = slot > 0 ? slot - 1 : 0;
+                    int[] parentKeys = new int[parent.keys.length - 1];
+                    System.arraycopy(parent.keys, 0, parentKeys, 0, separator);
+                    System.arraycopy(parent.keys, separator + 1, parentKeys, separator, parentKeys.length - separator);
+                    Node[] children = new Node[parent.children.length - 1];
+                    System.arraycopy(parent.children, 0, children, 0, slot);
+                    System.arraycopy(parent.children, slot + 1, children, slot, children.length - slot);
+                    child = new Branch(parentKeys, children);
+                }
+            }
+            if (child == null) {
+                child = new Leaf(new int[0]);
+            }
+            // a root with a single child is replaced by it, the tree shrinks by one level
+            while (child instanceof Branch && child.keys.length == 0) {
+                child = ((Branch) child).children[0];
+            }
+            publish(base, child, base.size - 1);
+        }
+    }
+
+    /**
+     * Search the current version by range
+     * @param key1 First key
+     * @param key2 Second key
+     * @return List of keys
+     */
+    @Override
+    public List<Integer> search(int key1, int key2) {
+        return current.search(key1, key2);
+    }
+
+    @Override
+    public void search(int key1, int key2, IntConsumer consumer) {
+        current.search(key1, key2, consumer);
+    }
+
+    @Override
+    public PrimitiveIterator.OfInt searchIterator(int key1, int key2) {
+        return current.searchIterator(key1, key2);
+    }
+
+    @Override
+    public void load(String datafilename) {
+        RecordReader.readKeys(datafilename, this::insert);
+    }
+
+    /**
+     * Print the current version from the root
+     */
+    @Override
+    public void printTree() {
+        printTree(current.root);
+    }
+
+    private void printTree(Node node) {
+        System.out.print("[");
+        for (int i = 0; i < node.keys.length; i++) {
+            System.out.print(node.keys[i]);
+            if (i != node.keys.length - 1) {
+                System.out.print(", ");
+            }
+        }
+        if (!(node instanceof Branch)) {
+            System.out.print("]");
+            return;
+        }
+        System.out.println("]");
+        for (Node child : ((Branch) node).children) {
+            printTree(child);
+        }
+        System.out.println();
+    }
+
+    /**
+     * Print statistics of the current version
+     */
+    @Override
+    public void dumpStatistics() {
+        Snapshot snapshot = current;
+        System.out.println("Statistics of the B+ Tree:");
+        System.out.println("Total number of data entries: " + snapshot.size);
+        System.out.println("Height of tree: " + snapshot.height);
+        System.out.println("Keys per node: " + DEGREE);
+        System.out.println("Version: " + snapshot.version);
+    }
+}
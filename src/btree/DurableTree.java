@@ -0,0 +1,343 @@
+package btree;
+
+import Utils.Utils.DuplicateKeyException;
+import Utils.Utils.KeyNotFoundException;
+import Utils.Utils.TreeIsEmptyException;
+import Utils.RecordReader;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.IntConsumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Makes an in-memory tree durable: every insert and delete is recorded in a WriteAheadLog before it
+ * returns, and the tree is rebuilt from the last checkpoint plus the log when the directory is opened again.
+ *
+ * A checkpoint writes every key of the tree to checkpoint-n.txt, in the data file format, where n is the
+ * first log segment not covered by it. Older checkpoints and segments are deleted afterwards, so the log
+ * only grows until the next checkpoint. Checkpoints are taken every checkpointInterval mutations, after a
+ * load, and on request.
+ */
+public class DurableTree implements BTree, Closeable {
+    private static final Pattern CHECKPOINT_NAME = Pattern.compile("checkpoint-(\\d+)\\.txt");
+
+    /**
+     * When a committed mutation is forced to disk
+     */
+    public enum SyncPolicy {
+        /** insert and delete return once the mutation is forced to disk, concurrent commits share one fsync */
+        ALWAYS,
+        /** a background thread forces the log every sync interval, at most that much is lost on a crash */
+        INTERVAL,
+        /** the log is handed to the OS whenever its buffer fills up and never forced */
+        NONE
+    }
+
+    private final BTree tree;
+    private final Path directory;
+    private final WriteAheadLog log;
+    private final int checkpointInterval;
+
+    // mutations hold the write lock while changing the tree and appending to the log, but commit
+    // outside of it, so threads waiting for the same fsync do not block each other
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Object checkpointLock = new Object();
+    private int mutationsSinceCheckpoint = 0;
+
+    /**
+     * Durable tree forcing every mutation to disk and checkpointing every 100000 mutations
+     * @param tree empty tree to make durable
+     * @param directory directory of the log and checkpoints, created if missing
+     */
+    public DurableTree(BTree tree, String directory) {
+        this(tree, directory, SyncPolicy.ALWAYS, 1000, 100_000);
+    }
+
+    /**
+     * Recover the tree from directory if it holds a previous state
+     * @param tree empty tree to make durable
+     * @param directory directory of the log and checkpoints, created if missing
+     * @param policy when committed mutations are forced to disk
+     * @param syncIntervalMillis how often the log is forced under SyncPolicy.INTERVAL
+     * @param checkpointInterval number of mutations after which a checkpoint is taken
+     */
+    public DurableTree(BTree tree, String directory, SyncPolicy policy, long syncIntervalMillis, int checkpointInterval) {
+        this.tree = tree;
+        this.directory = Paths.get(directory);
+        this.checkpointInterval = checkpointInterval;
+        try {
+            Files.createDirectories(this.directory);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        recover();
+        // the log always starts a fresh segment, a torn tail of the last one is never appended to
+        this.log = new WriteAheadLog(this.directory, policy, syncIntervalMillis);
+    }
+
+    /**
+     * Load the last checkpoint and replay the log segments written after it. The replayed records count
+     * towards the next checkpoint, so a tree reopened more often than every checkpointInterval mutations
+     * still checkpoints and its log stays bounded.
+     */
+    private void recover() {
+        int firstSegment = 1;
+        List<Integer> checkpoints = checkpoints();
+        if (!checkpoints.isEmpty()) {
+            firstSegment = checkpoints.get(checkpoints.size() - 1);
+            Path checkpoint = checkpointPath(firstSegment);
+            try {
+                if (Files.size(checkpoint) > 0) {
+                    tree.load(checkpoint.toString());
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        for (int segment : WriteAheadLog.segments(directory)) {
+            if (segment >= firstSegment) {
+                mutationsSinceCheckpoint += replay(WriteAheadLog.segmentPath(directory, segment));
+            }
+        }
+    }
+
+    /**
+     * Apply the complete records of a log segment to the tree
+     * @return number of complete records, applied or already covered by the checkpoint
+     */
+    private int replay(Path segment) {
+        int records = 0;
+        try (RecordReader reader = new RecordReader(segment.toString())) {
+            while (reader.nextLine()) {
+                char operator = reader.nextOperator();
+                int key;
+                try {
+                    key = reader.nextInt();
+                } catch (NumberFormatException e) {
+                    continue;
+                }
+                // a record is complete only with its newline, a crash may have cut the last one short,
+                // "+ 1234" down to "+ 12"
+                if (operator == 0 || !reader.atTerminatedEndOfLine()) {
+                    continue;
+                }
+                records++;
+                try {
+                    if (operator == '+') {
+                        tree.insert(key);
+                    } else {
+                        tree.delete(key);
+                    }
+                } catch (DuplicateKeyException | KeyNotFoundException | TreeIsEmptyException e) {
+                    // already applied by the checkpoint
+                }
+            }
+        }
+        return records;
+    }
+
+    private List<Integer> checkpoints() {
+        List<Integer> result = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.forEach((file) -> {
+                Matcher matcher = CHECKPOINT_NAME.matcher(file.getFileName().toString());
+                if (matcher.matches()) {
+                    result.add(Integer.parseInt(matcher.group(1)));
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        result.sort(Integer::compareTo);
+        return result;
+    }
+
+    private Path checkpointPath(int segment) {
+        return directory.resolve(String.format("checkpoint-%010d.txt", segment));
+    }
+
+    /**
+     * Write every key to a new checkpoint and drop the log segments it covers
+     */
+    public void checkpoint() {
+        synchronized (checkpointLock) {
+            int segment;
+            int[] keys = new int[1024];
+            int count = 0;
+            lock.writeLock().lock();
+            try {
+                segment = log.rotate();
+                mutationsSinceCheckpoint = 0;
+                try {
+                    PrimitiveIterator.OfInt iterator = tree.searchIterator(Integer.MIN_VALUE, Integer.MAX_VALUE);
+                    while (iterator.hasNext()) {
+                        if (count == keys.length) {
+                            keys = Arrays.copyOf(keys, count * 2);
+                        }
+                        keys[count++] = iterator.nextInt();
+                    }
+                } catch (TreeIsEmptyException e) {
+                    // empty checkpoint
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+
+            // the copy is written while mutations go on into the new segment
+            Path temporary = directory.resolve("checkpoint.tmp");
+            try {
+                try (BufferedWriter writer = Files.newBufferedWriter(temporary, StandardCharsets.US_ASCII)) {
+                    for (int i = 0; i < count; i++) {
+                        writer.write(Integer.toString(keys[i]));
+                        writer.newLine();
+                    }
+                }
+                try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+                    channel.force(true);
+                }
+                Files.move(temporary, checkpointPath(segment), StandardCopyOption.ATOMIC_MOVE);
+                syncDirectory();
+
+                for (int old : checkpoints()) {
+                    if (old < segment) {
+                        Files.delete(checkpointPath(old));
+                    }
+                }
+                for (int old : WriteAheadLog.segments(directory)) {
+                    if (old < segment) {
+                        Files.delete(WriteAheadLog.segmentPath(directory, old));
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Make the rename of a new checkpoint durable, not supported on every platform
+     */
+    private void syncDirectory() {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // directories cannot be opened on this platform, the rename is as durable as the OS makes it
+        }
+    }
+
+    /**
+     * Load a data file into the tree and checkpoint it, the loaded keys are not logged one by one
+     * @param datafilename data file
+     */
+    @Override
+    public void load(String datafilename) {
+        lock.writeLock().lock();
+        try {
+            tree.load(datafilename);
+        } finally {
+            lock.writeLock().unlock();
+        }
+        checkpoint();
+    }
+
+    @Override
+    public void insert(int key) {
+        long lsn;
+        boolean checkpointDue;
+        lock.writeLock().lock();
+        try {
+            tree.insert(key);
+            lsn = log.append(true, key);
+            checkpointDue = ++mutationsSinceCheckpoint >= checkpointInterval;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        log.commit(lsn);
+        if (checkpointDue) {
+            checkpoint();
+        }
+    }
+
+    @Override
+    public void delete(int key) {
+        long lsn;
+        boolean checkpointDue;
+        lock.writeLock().lock();
+        try {
+            tree.delete(key);
+            lsn = log.append(false, key);
+            checkpointDue = ++mutationsSinceCheckpoint >= checkpointInterval;
+        } finally {
+            lock.writeLock().unlock();
+        }
+        log.commit(lsn);
+        if (checkpointDue) {
+            checkpoint();
+        }
+    }
+
+    @Override
+    public List<Integer> search(int key1, int key2) {
+        lock.readLock().lock();
+        try {
+            return tree.search(key1, key2);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void search(int key1, int key2, IntConsumer consumer) {
+        lock.readLock().lock();
+        try {
+            tree.search(key1, key2, consumer);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void printTree() {
+        lock.readLock().lock();
+        try {
+            tree.printTree();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void dumpStatistics() {
+        lock.readLock().lock();
+        try {
+            tree.dumpStatistics();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Force the log and close it, the next open replays it on top of the last checkpoint
+     */
+    @Override
+    public void close() {
+        log.close();
+    }
+}
@@ -0,0 +1,71 @@
+package btree;
+
+import java.util.Arrays;
+
+/**
+ * Remembers the last leaves a tree descended to, each with the key range the separators on its path
+ * assign to it, so a lookup of a key in one of those ranges skips the descent.
+ *
+ * The ranges stay right as long as no separator moves and no node is added or removed, which the tree
+ * counts in its structural version. A cache filled under an older version is dropped as a whole.
+ * Leaves are replaced round-robin, the cache holds the leaves of the last descents.
+ */
+class FingerCache {
+    private final LeafNode[] leaves;
+    private final long[] lows; // smallest key of the range, inclusive
+    private final long[] highs; // end of the range, exclusive
+    private int count = 0;
+    private int next = 0; // slot the next leaf goes to
+    private long version = 0; // structural version of the tree the entries were taken under
+
+    /**
+     * @param size number of leaves to remember
+     */
+    FingerCache(int size) {
+        leaves = new LeafNode[size];
+        lows = new long[size];
+        highs = new long[size];
+    }
+
+    /**
+     * @param key key to look up
+     * @param version current structural version of the tree
+     * @return the leaf whose range holds key, null if no remembered leaf does
+     */
+    LeafNode find(int key, long version) {
+        if (version != this.version) {
+            clear(version);
+            return null;
+        }
+        for (int i = 0; i < count; i++) {
+            if (key >= lows[i] && key < highs[i]) {
+                return leaves[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Remember a leaf a descent ended in
+     * @param low smallest key of its range, Long.MIN_VALUE if unbounded
+     * @param high end of its range, exclusive, Long.MAX_VALUE if unbounded
+     * @param version current structural version of the tree
+     */
+    void remember(LeafNode leaf, long low, long high, long version) {
+        if (version != this.version) {
+            clear(version);
+        }
+        leaves[next] = leaf;
+        lows[next] = low;
+        highs[next] = high;
+        next = (next + 1) % leaves.length;
+        count = Math.max(count, next == 0 ? leaves.length : next);
+    }
+
+    private void clear(long version) {
+        Arrays.fill(leaves, 0, count, null);
+        count = 0;
+        next = 0;
+        this.version = version;
+    }
+}
@@ -0,0 +1,260 @@
+package btree;
+
+import Utils.Utils.DuplicateKeyException;
+import Utils.Utils.KeyNotFoundException;
+import Utils.Utils.TreeIsEmptyException;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.function.BiConsumer;
+
+/**
+ * B+ tree mapping keys of any type to values, ordered by a Comparator.
+ *
+ * Leaves keep their keys as they are, separators are whole keys. The index nodes and their rebalancing
+ * are those of AbstractMandyTree.
+ *
+ * byte[] keys work with Arrays::compareUnsigned as comparator, which also orders composite keys
+ * encoded field by field in an order-preserving way. For long keys LongMandyTree avoids the boxing.
+ * @param <K> key type
+ * @param <V> value type
+ */
+public class GenericMandyTree<K, V> extends AbstractMandyTree<Object[], GenericMandyTree.Leaf>
+        implements KeyValueTree<K, V> {
+    private final Comparator<? super K> comparator;
+
+    static final class Leaf extends AbstractMandyTree.Leaf {
+        final Object[] keys;
+
+        Leaf(int degree) {
+            super(degree);
+            keys = new Object[degree + 1];
+        }
+
+        void insert(int index, Object key, Object value) {
+            System.arraycopy(keys, index, keys, index + 1, keyCount - index);
+            System.arraycopy(values, index, values, index + 1, keyCount - index);
+            keys[index] = key;
+            values[index] = value;
+            keyCount++;
+        }
+
+        void removeAt(int index) {
+            System.arraycopy(keys, index + 1, keys, index, keyCount - index - 1);
+            System.arraycopy(values, index + 1, values, index, keyCount - index - 1);
+            keyCount--;
+            keys[keyCount] = null;
+            values[keyCount] = null;
+        }
+    }
+
+    /**
+     * @param DEGREE most keys a node holds, at least 2
+     * @param comparator order of the keys
+     */
+    public GenericMandyTree(int DEGREE, Comparator<? super K> comparator) {
+        super(DEGREE);
+        this.comparator = comparator;
+    }
+
+    @Override
+    Object[] newSeparators(int length) {
+        return new Object[length];
+    }
+
+    @Override
+    Leaf newLeaf() {
+        return new Leaf(DEGREE);
+    }
+
+    @SuppressWarnings("unchecked")
+    private int compare(Object key1, K key2) {
+        return comparator.compare((K) key1, key2);
+    }
+
+    /**
+     * @return position of the first key >= key
+     */
+    private int lowerBound(Object[] keys, int count, K key) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compare(keys[mid], key) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return position of the first key > key, which is the child of an index node holding key
+     */
+    private int upperBound(Object[] keys, int count, K key) {
+        int low = 0;
+        int high = count;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compare(keys[mid], key) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Descend to the leaf of key without remembering the path, for reads
+     */
+    private Leaf findLeaf(K key) {
+        Node node = root;
+        while (node instanceof Branch) {
+            Branch<Object[]> branch = asBranch(node);
+            node = branch.children[upperBound(branch.keys, branch.keyCount, key)];
+        }
+        return (Leaf) node;
+    }
+
+    /**
+     * Descend to the leaf of key, remembering the path for a split or merge
+     */
+    private Leaf descend(K key) {
+        pathLength = 0;
+        Node node = root;
+        while (node instanceof Branch) {
+            Branch<Object[]> branch = asBranch(node);
+            node = pushPath(branch, upperBound(branch.keys, branch.keyCount, key));
+        }
+        return (Leaf) node;
+    }
+
+    @Override
+    public void insert(K key, V value) {
+        if (root == null) {
+            insertIntoEmpty(key, value);
+            return;
+        }
+        Leaf leaf = descend(key);
+        int index = lowerBound(leaf.keys, leaf.keyCount, key);
+        if (index < leaf.keyCount && compare(leaf.keys[index], key) == 0) {
+            throw new DuplicateKeyException(String.valueOf(key));
+        }
+        leaf.insert(index, key, value);
+        entryAdded(leaf);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V put(K key, V value) {
+        if (root == null) {
+            insertIntoEmpty(key, value);
+            return null;
+        }
+        Leaf leaf = descend(key);
+        int index = lowerBound(leaf.keys, leaf.keyCount, key);
+        if (index < leaf.keyCount && compare(leaf.keys[index], key) == 0) {
+            V previous = (V) leaf.values[index];
+            leaf.values[index] = value;
+            return previous;
+        }
+        leaf.insert(index, key, value);
+        entryAdded(leaf);
+        return null;
+    }
+
+    private void insertIntoEmpty(K key, V value) {
+        Leaf leaf = newLeaf();
+        leaf.insert(0, key, value);
+        plantRoot(leaf);
+    }
+
+    @Override
+    void splitEntries(Leaf leaf, Leaf right, Object[] separator) {
+        int split = leaf.keyCount / 2;
+        int count = leaf.keyCount - split;
+        System.arraycopy(leaf.keys, split, right.keys, 0, count);
+        System.arraycopy(leaf.values, split, right.values, 0, count);
+        // clear the moved slots so the leaf does not keep keys and values reachable
+        Arrays.fill(leaf.keys, split, leaf.keyCount, null);
+        Arrays.fill(leaf.values, split, leaf.keyCount, null);
+        right.keyCount = count;
+        leaf.keyCount = split;
+        separator[0] = right.keys[0];
+    }
+
+    @Override
+    void borrowLast(Leaf from, Leaf leaf, Object[] separators, int index) {
+        leaf.insert(0, from.keys[from.keyCount - 1], from.values[from.keyCount - 1]);
+        from.removeAt(from.keyCount - 1);
+        separators[index] = leaf.keys[0];
+    }
+
+    @Override
+    void borrowFirst(Leaf from, Leaf leaf, Object[] separators, int index) {
+        leaf.insert(leaf.keyCount, from.keys[0], from.values[0]);
+        from.removeAt(0);
+        separators[index] = from.keys[0];
+    }
+
+    @Override
+    void mergeEntries(Leaf left, Leaf right) {
+        System.arraycopy(right.keys, 0, left.keys, left.keyCount, right.keyCount);
+        System.arraycopy(right.values, 0, left.values, left.keyCount, right.keyCount);
+        left.keyCount += right.keyCount;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V get(K key) {
+        if (root == null) {
+            return null;
+        }
+        Leaf leaf = findLeaf(key);
+        int index = lowerBound(leaf.keys, leaf.keyCount, key);
+        if (index < leaf.keyCount && compare(leaf.keys[index], key) == 0) {
+            return (V) leaf.values[index];
+        }
+        return null;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public V delete(K key) {
+        if (root == null) {
+            throw new TreeIsEmptyException();
+        }
+        Leaf leaf = descend(key);
+        int index = lowerBound(leaf.keys, leaf.keyCount, key);
+        if (index == leaf.keyCount || compare(leaf.keys[index], key) != 0) {
+            throw new KeyNotFoundException(String.valueOf(key));
+        }
+        V value = (V) leaf.values[index];
+        leaf.removeAt(index);
+        entryRemoved(leaf);
+        return value;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void search(K key1, K key2, BiConsumer<? super K, ? super V> consumer) {
+        if (root == null) {
+            throw new TreeIsEmptyException();
+        }
+        Leaf leaf = findLeaf(key1);
+        int index = lowerBound(leaf.keys, leaf.keyCount, key1);
+        while (leaf != null) {
+            for (; index < leaf.keyCount; index++) {
+                K key = (K) leaf.keys[index];
+                if (comparator.compare(key, key2) > 0) {
+                    return;
+                }
+                consumer.accept(key, (V) leaf.values[index]);
+            }
+            leaf = (Leaf) leaf.next;
+            index = 0;
+        }
+    }
+}
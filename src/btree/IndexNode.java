@@ -1,15 +1,21 @@
 package btree;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
  class IndexNode extends MandyTree.Node {
 
-    private List<MandyTree.Node> pointers; // List of pointers to child nodes
+    private MandyTree.Node[] pointers; // Pointers to child nodes, pointers[i] holds the keys below keys[i]
+    private int entries; // keys in the subtree, only kept up to date while the tree maintains aggregate counts
 
-    public IndexNode() {
-        super();
-        pointers = new ArrayList<>();
+    /**
+     * @param degree degree of the tree, one extra slot is kept so an overflowing node can be split after the insert
+     * @param search how keys are located inside the node
+     */
+    public IndexNode(int degree, KeySearch search) {
+        super(degree + 1, search);
+        pointers = new MandyTree.Node[degree + 2];
     }
 
     @Override
@@ -19,135 +25,181 @@ import java.util.List;
 
     @Override
     public boolean isOverflow(int degree) {
-        return keys.size() > degree;
+        return keyCount > degree;
     }
 
     @Override
     public boolean isUnderflow(int degree) {
-        return keys.size() < Math.ceil((degree - 1) / 2.0);
+        return keyCount < Math.ceil((degree - 1) / 2.0);
     }
 
     @Override
     public int getKeyCount() {
-        return keys.size();
+        return keyCount;
     }
 
-     public void setKeys(List<Integer> keys) {
-         this.keys = new ArrayList<>(keys);
-     }
     @Override
-    public boolean insertKey(Integer key) {
-        int index = 0;
-        while (index < keys.size() && key.compareTo(keys.get(index)) > 0) {
-            index++;
+    public int getEntryCount() {
+        return entries;
+    }
+
+    /**
+     * Recompute the number of keys in the subtree from the children, whose own counts must be up to date
+     */
+    public void recountEntries() {
+        int total = 0;
+        for (int i = 0; i <= keyCount; i++) {
+            total += pointers[i].getEntryCount();
         }
-        keys.add(index, key);
+        entries = total;
+    }
+
+    @Override
+    public boolean insertKey(int key) {
+        int index = search.lowerBound(keys, keyCount, key);
+        System.arraycopy(keys, index, keys, index + 1, keyCount - index);
+        keys[index] = key;
+        keyCount++;
         return true;
     }
 
+    /**
+     * Insert a separator key together with the child holding the keys from that separator up
+     * @param key separator key
+     * @param child right child of the separator
+     */
+    public void insertChild(int key, MandyTree.Node child) {
+        int index = search.lowerBound(keys, keyCount, key);
+        System.arraycopy(keys, index, keys, index + 1, keyCount - index);
+        System.arraycopy(pointers, index + 1, pointers, index + 2, keyCount - index);
+        keys[index] = key;
+        pointers[index + 1] = child;
+        keyCount++;
+    }
+
+    /**
+     * Append a separator key and its right child, both larger than anything already in the node
+     * @param key separator key
+     * @param child right child of the separator
+     */
+    public void appendChild(int key, MandyTree.Node child) {
+        keys[keyCount] = key;
+        keyCount++;
+        pointers[keyCount] = child;
+    }
+
+    /**
+     * Insert a key and the child left of it in front of everything already in the node
+     * @param key separator key, smaller than every key in the node
+     * @param child new first child
+     */
+    public void prependChild(int key, MandyTree.Node child) {
+        System.arraycopy(keys, 0, keys, 1, keyCount);
+        System.arraycopy(pointers, 0, pointers, 1, keyCount + 1);
+        keys[0] = key;
+        pointers[0] = child;
+        keyCount++;
+    }
+
+    /**
+     * Remove the first child together with the first key
+     */
+    public void removeFirstChild() {
+        System.arraycopy(keys, 1, keys, 0, keyCount - 1);
+        System.arraycopy(pointers, 1, pointers, 0, keyCount);
+        pointers[keyCount] = null;
+        keyCount--;
+    }
+
+    /**
+     * Remove the key at index together with the child right of it
+     * @param index position of the separator
+     */
+    public void removeSeparator(int index) {
+        System.arraycopy(keys, index + 1, keys, index, keyCount - index - 1);
+        System.arraycopy(pointers, index + 2, pointers, index + 1, keyCount - index - 1);
+        pointers[keyCount] = null;
+        keyCount--;
+    }
+
+    /**
+     * Append separator and all keys and children of source, then empty source
+     * @param separator key between the last child of this node and the first child of source
+     * @param source right sibling of this node
+     */
+    public void absorb(int separator, IndexNode source) {
+        keys[keyCount] = separator;
+        System.arraycopy(source.keys, 0, keys, keyCount + 1, source.keyCount);
+        System.arraycopy(source.pointers, 0, pointers, keyCount + 1, source.keyCount + 1);
+        keyCount += source.keyCount + 1;
+        Arrays.fill(source.pointers, 0, source.keyCount + 1, null);
+        source.keyCount = 0;
+    }
+
     @Override
-    public boolean deleteKey(Integer key) {
-        int index = keys.indexOf(key);
-        if (index != -1) {
-            keys.remove(index);
+    public boolean deleteKey(int key) {
+        int index = search.lowerBound(keys, keyCount, key);
+        if (index < keyCount && keys[index] == key) {
+            System.arraycopy(keys, index + 1, keys, index, keyCount - index - 1);
+            keyCount--;
             return true;
         }
         return false;
     }
 
     @Override
-    public List<Integer> searchKeys(Integer key1, Integer key2) {
+    public List<Integer> searchKeys(int key1, int key2) {
         List<Integer> result = new ArrayList<>();
-        int index = 0;
-        while (index < keys.size() && key1.compareTo(keys.get(index)) > 0) {
-            index++;
-        }
-        while (index < keys.size() && key2.compareTo(keys.get(index)) >= 0) {
-            result.add(keys.get(index));
+        int index = search.lowerBound(keys, keyCount, key1);
+        while (index < keyCount && key2 >= keys[index]) {
+            result.add(keys[index]);
             index++;
         }
         return result;
     }
 
-    @Override
-    public List<Integer> getAllKeys() {
-        return new ArrayList<>(keys);
-    }
-
-     public List<MandyTree.Node> getAllPointer() {
-         return new ArrayList<>(pointers);
-     }
-
      @Override
     public MandyTree.Node getChild(int index) {
-        if (index >= 0 && index < pointers.size()) {
-            return pointers.get(index);
+        if (index >= 0 && index <= keyCount) {
+            return pointers[index];
         }
         return null;
     }
-     public void removeChild(int index) {
-         if (index >= 0 && index < pointers.size()) {
-             pointers.remove(index);
-         }
-     }
-
 
      @Override
     public void setChild(int index, MandyTree.Node child) {
-        if (index >= 0 && index <= getKeyCount() && pointers.size()>index && (child==pointers.get(index))) {
-            pointers.set(index, child);
-        }else{
-            pointers.add(index,child);
-        }
+        pointers[index] = child;
     }
 
-
-
-     public void setPointers(List<MandyTree.Node> pointers) {
-        this.pointers=pointers;
-     }
     /**
-     * Given a pointer to a Node object and an integer index, this method
-     * inserts the pointer at the specified index within the childPointers
-     * instance variable. As a result of the insert, some pointers may be
-     * shifted to the right of the index.
-     * @param child: the Node pointer to be inserted
-     * @param index: the index at which the insert is to take place
+     * Move the keys after index and their children into target, which must be empty.
+     * keys[index] itself is dropped from this node and returned, so the caller can push it up.
+     * @param index position of the separator to push up
+     * @param target empty index node receiving the right half
+     * @return the separator between this node and target
      */
-    public void addChild(int index, MandyTree.Node child) {
-        if (index >= 0 && index <= getKeyCount()) {
-            pointers.add(index, child);
-        }
+    public int moveTailTo(int index, IndexNode target) {
+        int separator = keys[index];
+        int count = keyCount - index - 1;
+        System.arraycopy(keys, index + 1, target.keys, 0, count);
+        System.arraycopy(pointers, index + 1, target.pointers, 0, count + 1);
+        Arrays.fill(pointers, index + 1, keyCount + 1, null);
+        target.keyCount = count;
+        keyCount = index;
+        return separator;
     }
+
     @Override
     public void printNode() {
-        for (int i = 0; i < keys.size(); i++) {
-            System.out.print(keys.get(i));
-            if (i != keys.size() - 1) {
+        for (int i = 0; i < keyCount; i++) {
+            System.out.print(keys[i]);
+            if (i != keyCount - 1) {
                 System.out.print(", ");
             }
         }
 
     }
-    public int getInsertionIndex(Integer key) {
-        int index = 0;
-        while (index < keys.size() && key.compareTo(keys.get(index)) >= 0) {
-            index++;
-        }
-        return index;
+    public int getInsertionIndex(int key) {
+        return search.upperBound(keys, keyCount, key);
     }
-    public int getPrevRedistributeKeyIndex(Integer key){
-        int index=keys.size()-1;
-        while(!(keys.get(index) <= key)){
-            index--;
-        }
-        return index;
-    }
-     public int getNextRedistributeKeyIndex(Integer key){
-         int index=0;
-         while(!(keys.get(index) > key)){
-             index++;
-         }
-         return index;
-     }
 }
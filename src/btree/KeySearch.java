@@ -0,0 +1,167 @@
+package btree;
+
+/**
+ * Strategy used to locate a key among the sorted keys of a single node.
+ * Every node of a tree uses the strategy the tree was created with.
+ *
+ * lowerBound returns the first position whose key is >= key,
+ * upperBound the first position whose key is > key (both return count if there is none).
+ */
+public enum KeySearch {
+    /**
+     * Plain left-to-right scan, cheapest for the small nodes of a low degree tree
+     */
+    LINEAR {
+        @Override
+        public int lowerBound(int[] keys, int count, int key) {
+            int index = 0;
+            while (index < count && keys[index] < key) {
+                index++;
+            }
+            return index;
+        }
+
+        @Override
+        public int upperBound(int[] keys, int count, int key) {
+            int index = 0;
+            while (index < count && keys[index] <= key) {
+                index++;
+            }
+            return index;
+        }
+    },
+
+    /**
+     * Textbook binary search
+     */
+    BINARY {
+        @Override
+        public int lowerBound(int[] keys, int count, int key) {
+            int low = 0;
+            int high = count;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (keys[mid] < key) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        @Override
+        public int upperBound(int[] keys, int count, int key) {
+            int low = 0;
+            int high = count;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (keys[mid] <= key) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    },
+
+    /**
+     * Binary search whose loop always runs log2(count) times and only moves the base with a
+     * conditional move, so there is no data dependent branch for the CPU to mispredict
+     */
+    BRANCHLESS {
+        @Override
+        public int lowerBound(int[] keys, int count, int key) {
+            if (count == 0) {
+                return 0;
+            }
+            int base = 0;
+            int n = count;
+            while (n > 1) {
+                int half = n >>> 1;
+                base = keys[base + half] < key ? base + half : base;
+                n -= half;
+            }
+            return base + (keys[base] < key ? 1 : 0);
+        }
+
+        @Override
+        public int upperBound(int[] keys, int count, int key) {
+            if (count == 0) {
+                return 0;
+            }
+            int base = 0;
+            int n = count;
+            while (n > 1) {
+                int half = n >>> 1;
+                base = keys[base + half] <= key ? base + half : base;
+                n -= half;
+            }
+            return base + (keys[base] <= key ? 1 : 0);
+        }
+    },
+
+    /**
+     * Binary search down to a block of BLOCK_SIZE keys, then a branch-free count over the block.
+     * The counting loop has no early exit, which is the shape the JIT can turn into SIMD compares;
+     * it stands in for a jdk.incubator.vector implementation, which this module does not enable.
+     */
+    BLOCK_SCAN {
+        @Override
+        public int lowerBound(int[] keys, int count, int key) {
+            int low = 0;
+            int high = count;
+            while (high - low > BLOCK_SIZE) {
+                int mid = (low + high) >>> 1;
+                if (keys[mid] < key) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            int index = low;
+            for (int i = low; i < high; i++) {
+                index += keys[i] < key ? 1 : 0;
+            }
+            return index;
+        }
+
+        @Override
+        public int upperBound(int[] keys, int count, int key) {
+            int low = 0;
+            int high = count;
+            while (high - low > BLOCK_SIZE) {
+                int mid = (low + high) >>> 1;
+                if (keys[mid] <= key) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            int index = low;
+            for (int i = low; i < high; i++) {
+                index += keys[i] <= key ? 1 : 0;
+            }
+            return index;
+        }
+    };
+
+    private static final int BLOCK_SIZE = 16;
+
+    /**
+     * @param keys sorted keys, only the first count are looked at
+     * @param count number of keys in use
+     * @param key key to look for
+     * @return first position whose key is >= key
+     */
+    public abstract int lowerBound(int[] keys, int count, int key);
+
+    /**
+     * @param keys sorted keys, only the first count are looked at
+     * @param count number of keys in use
+     * @param key key to look for
+     * @return first position whose key is > key
+     */
+    public abstract int upperBound(int[] keys, int count, int key);
+}
@@ -0,0 +1,69 @@
+package btree;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+/**
+ * A B+ tree mapping ordered keys to values, e.g. record ids to row locators.
+ * BTree is the int key set the CLI works on; this is its counterpart with real payloads.
+ * @param <K> key type, ordered by the tree's comparator
+ * @param <V> value type
+ */
+public interface KeyValueTree<K, V> {
+
+    /**
+     * Insert a new key
+     * @throws Utils.Utils.DuplicateKeyException if the key is already present
+     */
+    void insert(K key, V value);
+
+    /**
+     * Insert a key or replace its value
+     * @return the previous value, null if the key was not present
+     */
+    V put(K key, V value);
+
+    /**
+     * @return the value of key, null if the key is not present
+     */
+    V get(K key);
+
+    /**
+     * Delete a key
+     * @return the value the key had
+     * @throws Utils.Utils.KeyNotFoundException if the key is not present
+     * @throws Utils.Utils.TreeIsEmptyException if the tree is empty
+     */
+    V delete(K key);
+
+    /**
+     * Search tree by range
+     * @param key1 First key
+     * @param key2 Second key
+     * @param consumer receives the entries with key1 <= key <= key2 in ascending key order
+     */
+    void search(K key1, K key2, BiConsumer<? super K, ? super V> consumer);
+
+    /**
+     * Search tree by range
+     * @param key1 First key
+     * @param key2 Second key
+     * @return values of the keys in range, in ascending key order
+     */
+    default List<V> search(K key1, K key2) {
+        List<V> result = new ArrayList<>();
+        search(key1, key2, (key, value) -> result.add(value));
+        return result;
+    }
+
+    /**
+     * @return number of keys in the tree
+     */
+    long size();
+
+    /**
+     * @return number of levels, 0 for an empty tree
+     */
+    int getHeight();
+}
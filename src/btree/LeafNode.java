@@ -5,13 +5,17 @@ import java.util.List;
 
 
  class LeafNode extends MandyTree.Node {
-    private List<Integer> values; // List of values in the leaf node
+    // a key is its own record (key = rid), so a leaf stores nothing but its keys
     private LeafNode next; // Reference to the next leaf node
     private LeafNode previous; // Reference to the next leaf node
-
-    public LeafNode() {
-        super();
-        values = new ArrayList<>();
+    private int version = 0; // counts every change of the keys, so a cursor can tell whether its position still holds
+
+    /**
+     * @param degree degree of the tree, one extra slot is kept so an overflowing leaf can be split after the insert
+     * @param search how keys are located inside the node
+     */
+    public LeafNode(int degree, KeySearch search) {
+        super(degree + 1, search);
         next = null;
     }
 
@@ -22,58 +26,96 @@ import java.util.List;
 
     @Override
     public boolean isOverflow(int degree) {
-        return keys.size() > degree - 1;
+        return keyCount > degree - 1;
     }
 
     @Override
     public boolean isUnderflow(int degree) {
-        return keys.size() < Math.ceil((degree - 1) / 2.0);
+        return keyCount < Math.ceil((degree - 1) / 2.0);
     }
 
     @Override
     public int getKeyCount() {
-        return keys.size();
+        return keyCount;
     }
 
     @Override
-    public boolean insertKey(Integer key) {
-        int index = 0;
-        while (index < keys.size() && key.compareTo(keys.get(index)) > 0) {
-            index++;
-        }
-        keys.add(index, key);
-        values.add(index, key);
+    public int getEntryCount() {
+        return keyCount;
+    }
+
+    @Override
+    public boolean insertKey(int key) {
+        int index = search.lowerBound(keys, keyCount, key);
+        System.arraycopy(keys, index, keys, index + 1, keyCount - index);
+        keys[index] = key;
+        keyCount++;
+        version++;
         return true;
     }
 
+    /**
+     * Append a key larger than every key already in the leaf
+     * @param key key to append
+     */
+    public void appendKey(int key) {
+        keys[keyCount] = key;
+        keyCount++;
+        version++;
+    }
+
     @Override
-    public boolean deleteKey(Integer key) {
-        int index = keys.indexOf(key);
-        if (index != -1) {
-            keys.remove(index);
-            values.remove(index);
+    public boolean deleteKey(int key) {
+        int index = search.lowerBound(keys, keyCount, key);
+        if (index < keyCount && keys[index] == key) {
+            removeAt(index);
             return true;
         }
         return false;
     }
 
+    /**
+     * Remove the entry at index, shifting the following entries left
+     * @param index position of the entry
+     */
+    public void removeAt(int index) {
+        System.arraycopy(keys, index + 1, keys, index, keyCount - index - 1);
+        keyCount--;
+        version++;
+    }
+
     @Override
-    public List<Integer> searchKeys(Integer key1, Integer key2) {
+    public List<Integer> searchKeys(int key1, int key2) {
         List<Integer> result = new ArrayList<>();
-        int index = 0;
-        while (index < keys.size() && key1.compareTo(keys.get(index)) > 0) {
-            index++;
-        }
-        while (index < keys.size() && key2.compareTo(keys.get(index)) >= 0) {
-            result.add(keys.get(index));
+        int index = search.lowerBound(keys, keyCount, key1);
+        while (index < keyCount && key2 >= keys[index]) {
+            result.add(keys[index]);
             index++;
         }
         return result;
     }
 
-    @Override
-    public List<Integer> getAllKeys() {
-        return new ArrayList<>(keys);
+    /**
+     * @param key key to look for
+     * @return position of the first key >= key, or the key count if there is none
+     */
+    public int getLowerBoundIndex(int key) {
+        return search.lowerBound(keys, keyCount, key);
+    }
+
+    /**
+     * @param key key to look for
+     * @return position of the first key > key, or the key count if there is none
+     */
+    public int getUpperBoundIndex(int key) {
+        return search.upperBound(keys, keyCount, key);
+    }
+
+    /**
+     * @return number of changes to the keys of this leaf so far
+     */
+    public int getVersion() {
+        return version;
     }
 
     @Override
@@ -92,8 +134,11 @@ import java.util.List;
     public LeafNode getPrevious() {
         return previous;
     }
-    public Integer getFirstLeafKey() {
-        return keys.get(0);
+    public int getFirstLeafKey() {
+        return keys[0];
+    }
+    public int getLastLeafKey() {
+        return keys[keyCount - 1];
     }
     public void setNext(LeafNode next) {
         this.next = next;
@@ -101,19 +146,53 @@ import java.util.List;
     public void setPrevious(LeafNode previous) {
         this.previous = previous;
     }
-    public void setKeys(List<Integer> keys) {
-        this.keys = new ArrayList<>(keys);
-        this.values = new ArrayList<>(keys);
+
+    /**
+     * Move the entries from index onwards to the front of target, which must be empty
+     * @param index first entry to move
+     * @param target empty leaf receiving the entries
+     */
+    public void moveTailTo(int index, LeafNode target) {
+        int count = keyCount - index;
+        System.arraycopy(keys, index, target.keys, 0, count);
+        target.keyCount = count;
+        keyCount = index;
+        version++;
+        target.version++;
+    }
+
+    /**
+     * Replace the entries of this leaf
+     * @param source sorted keys
+     * @param from position of the first key in source
+     * @param count number of keys, at most the degree
+     */
+    public void setKeys(int[] source, int from, int count) {
+        System.arraycopy(source, from, keys, 0, count);
+        keyCount = count;
+        version++;
+    }
+
+    /**
+     * Append all entries of source to this leaf and empty source
+     * @param source leaf holding only keys larger than this leaf's keys
+     */
+    public void absorb(LeafNode source) {
+        System.arraycopy(source.keys, 0, keys, keyCount, source.keyCount);
+        keyCount += source.keyCount;
+        source.keyCount = 0;
+        version++;
+        source.version++;
     }
+
     @Override
     public void printNode() {
-        for (int i = 0; i < keys.size(); i++) {
-            System.out.print(keys.get(i));
-            if (i != keys.size() - 1) {
+        for (int i = 0; i < keyCount; i++) {
+            System.out.print(keys[i]);
+            if (i != keyCount - 1) {
                 System.out.print(", ");
             }
         }
 
     }
 }
-
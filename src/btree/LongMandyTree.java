@@ -0,0 +1,431 @@
+package btree;
+
+import Utils.Utils.DuplicateKeyException;
+import Utils.Utils.KeyNotFoundException;
+import Utils.Utils.TreeIsEmptyException;
+
+import java.util.Arrays;
+import java.util.function.BiConsumer;
+
+/**
+ * B+ tree mapping long keys, e.g. 64-bit record ids, to values.
+ *
+ * Same structure as GenericMandyTree, but keys and separators live in primitive arrays and are compared
+ * directly, so neither the nodes nor a lookup box a key. Callers that work with the KeyValueTree interface
+ * go through asKeyValueTree().
+ *
+ * Leaves are frame-of-reference encoded: a leaf stores its smallest key once and every key as an unsigned
+ * 32-bit offset from it, which halves the key bytes of a leaf as long as its keys span less than 2^32, as
+ * neighbouring ids do. A leaf whose keys spread wider falls back to plain long keys.
+ * @param <V> value type
+ */
+public class LongMandyTree<V> extends AbstractMandyTree<long[], LongMandyTree.Leaf> {
+    // keys and values of two leaves, for splits and merges that encode the leaves anew
+    private final long[] scratchKeys;
+    private final Object[] scratchValues;
+
+    /**
+     * Receives the entries of a range search
+     */
+    @FunctionalInterface
+    public interface EntryConsumer<V> {
+        void accept(long key, V value);
+    }
+
+    static final class Leaf extends AbstractMandyTree.Leaf {
+        private static final long MAX_OFFSET = 0xFFFFFFFFL;
+
+        long base; // the keys are base + offset
+        int[] offsets; // unsigned offsets of the keys from base, null while the leaf holds wide keys
+        long[] wideKeys; // the keys themselves when they span 2^32 or more, null otherwise
+
+        Leaf(int degree) {
+            super(degree);
+            offsets = new int[degree + 1];
+        }
+
+        long key(int index) {
+            return offsets != null ? base + Integer.toUnsignedLong(offsets[index]) : wideKeys[index];
+        }
+
+        /**
+         * @return whether key can be stored as an offset from base
+         */
+        boolean fits(long key) {
+            return key >= base && Long.compareUnsigned(key - base, MAX_OFFSET) <= 0;
+        }
+
+        /**
+         * @return position of the first key >= key
+         */
+        int lowerBound(long key) {
+            int low = 0;
+            int high = keyCount;
+            if (offsets == null) {
+                while (low < high) {
+                    int mid = (low + high) >>> 1;
+                    if (wideKeys[mid] < key) {
+                        low = mid + 1;
+                    } else {
+                        high = mid;
+                    }
+                }
+                return low;
+            }
+            if (!fits(key)) {
+                // every key of the leaf lies in [base, base + 2^32)
+                return key < base ? 0 : keyCount;
+            }
+            int offset = (int) (key - base);
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (Integer.compareUnsigned(offsets[mid], offset) < 0) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        void insert(int index, long key, Object value) {
+            if (offsets != null && !fits(key)) {
+                if (keyCount == 0) {
+                    base = key;
+                } else if (key < base && Long.compareUnsigned(key(keyCount - 1) - key, MAX_OFFSET) <= 0) {
+                    // move base down to the new smallest key, the other offsets grow by the difference
+                    long shift = base - key;
+                    for (int i = 0; i < keyCount; i++) {
+                        offsets[i] = (int) (Integer.toUnsignedLong(offsets[i]) + shift);
+                    }
+                    base = key;
+                } else {
+                    widen();
+                }
+            }
+            System.arraycopy(values, index, values, index + 1, keyCount - index);
+            values[index] = value;
+            if (offsets != null) {
+                System.arraycopy(offsets, index, offsets, index + 1, keyCount - index);
+                offsets[index] = (int) (key - base);
+            } else {
+                System.arraycopy(wideKeys, index, wideKeys, index + 1, keyCount - index);
+                wideKeys[index] = key;
+            }
+            keyCount++;
+        }
+
+        private void widen() {
+            wideKeys = new long[values.length];
+            for (int i = 0; i < keyCount; i++) {
+                wideKeys[i] = key(i);
+            }
+            offsets = null;
+        }
+
+        void removeAt(int index) {
+            if (offsets != null) {
+                System.arraycopy(offsets, index + 1, offsets, index, keyCount - index - 1);
+            } else {
+                System.arraycopy(wideKeys, index + 1, wideKeys, index, keyCount - index - 1);
+            }
+            System.arraycopy(values, index + 1, values, index, keyCount - index - 1);
+            keyCount--;
+            values[keyCount] = null;
+        }
+
+        /**
+         * Write the keys and the values of the leaf to keys and values
+         * @return number of entries written
+         */
+        int copyEntries(long[] keys, Object[] values, int offset) {
+            for (int i = 0; i < keyCount; i++) {
+                keys[offset + i] = key(i);
+            }
+            System.arraycopy(this.values, 0, values, offset, keyCount);
+            return keyCount;
+        }
+
+        /**
+         * Replace the entries of the leaf, as offsets if the keys span less than 2^32
+         * @param keys sorted keys
+         */
+        void setEntries(long[] keys, Object[] values, int from, int count) {
+            if (count == 0 || Long.compareUnsigned(keys[from + count - 1] - keys[from], MAX_OFFSET) <= 0) {
+                if (offsets == null) {
+                    offsets = new int[this.values.length];
+                    wideKeys = null;
+                }
+                base = count == 0 ? 0 : keys[from];
+                for (int i = 0; i < count; i++) {
+                    offsets[i] = (int) (keys[from + i] - base);
+                }
+            } else {
+                if (offsets != null) {
+                    wideKeys = new long[this.values.length];
+                    offsets = null;
+                }
+                System.arraycopy(keys, from, wideKeys, 0, count);
+            }
+            System.arraycopy(values, from, this.values, 0, count);
+            Arrays.fill(this.values, count, Math.max(count, keyCount), null);
+            keyCount = count;
+        }
+    }
+
+    /**
+     * @param DEGREE most keys a node holds, at least 2
+     */
+    public LongMandyTree(int DEGREE) {
+        super(DEGREE);
+        this.scratchKeys = new long[2 * DEGREE + 2];
+        this.scratchValues = new Object[2 * DEGREE + 2];
+    }
+
+    @Override
+    long[] newSeparators(int length) {
+        return new long[length];
+    }
+
+    @Override
+    Leaf newLeaf() {
+        return new Leaf(DEGREE);
+    }
+
+    /**
+     * @return position of the first separator > key, which is the child holding key
+     */
+    private static int upperBound(Branch<long[]> branch, long key) {
+        int low = 0;
+        int high = branch.keyCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (branch.keys[mid] <= key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Descend to the leaf of key without remembering the path, for reads
+     */
+    private Leaf findLeaf(long key) {
+        Node node = root;
+        while (node instanceof Branch) {
+            Branch<long[]> branch = asBranch(node);
+            node = branch.children[upperBound(branch, key)];
+        }
+        return (Leaf) node;
+    }
+
+    /**
+     * Descend to the leaf of key, remembering the path for a split or merge
+     */
+    private Leaf descend(long key) {
+        pathLength = 0;
+        Node node = root;
+        while (node instanceof Branch) {
+            Branch<long[]> branch = asBranch(node);
+            node = pushPath(branch, upperBound(branch, key));
+        }
+        return (Leaf) node;
+    }
+
+    /**
+     * Insert a new key
+     * @throws DuplicateKeyException if the key is already present
+     */
+    public void insert(long key, V value) {
+        if (root == null) {
+            insertIntoEmpty(key, value);
+            return;
+        }
+        Leaf leaf = descend(key);
+        int index = leaf.lowerBound(key);
+        if (index < leaf.keyCount && leaf.key(index) == key) {
+            throw new DuplicateKeyException(String.valueOf(key));
+        }
+        leaf.insert(index, key, value);
+        entryAdded(leaf);
+    }
+
+    /**
+     * Insert a key or replace its value
+     * @return the previous value, null if the key was not present
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        if (root == null) {
+            insertIntoEmpty(key, value);
+            return null;
+        }
+        Leaf leaf = descend(key);
+        int index = leaf.lowerBound(key);
+        if (index < leaf.keyCount && leaf.key(index) == key) {
+            V previous = (V) leaf.values[index];
+            leaf.values[index] = value;
+            return previous;
+        }
+        leaf.insert(index, key, value);
+        entryAdded(leaf);
+        return null;
+    }
+
+    private void insertIntoEmpty(long key, V value) {
+        Leaf leaf = newLeaf();
+        leaf.insert(0, key, value);
+        plantRoot(leaf);
+    }
+
+    /**
+     * Split the entries encoding both halves on their own, so a leaf that had to widen its keys gets
+     * offsets again once its halves are close enough
+     */
+    @Override
+    void splitEntries(Leaf leaf, Leaf right, long[] separator) {
+        int count = leaf.copyEntries(scratchKeys, scratchValues, 0);
+        int split = count / 2;
+        leaf.setEntries(scratchKeys, scratchValues, 0, split);
+        right.setEntries(scratchKeys, scratchValues, split, count - split);
+        separator[0] = scratchKeys[split];
+        Arrays.fill(scratchValues, 0, count, null);
+    }
+
+    @Override
+    void borrowLast(Leaf from, Leaf leaf, long[] separators, int index) {
+        long key = from.key(from.keyCount - 1);
+        Object value = from.values[from.keyCount - 1];
+        from.removeAt(from.keyCount - 1);
+        leaf.insert(0, key, value);
+        separators[index] = key;
+    }
+
+    @Override
+    void borrowFirst(Leaf from, Leaf leaf, long[] separators, int index) {
+        leaf.insert(leaf.keyCount, from.key(0), from.values[0]);
+        from.removeAt(0);
+        separators[index] = from.key(0);
+    }
+
+    /**
+     * Merge the entries encoded together
+     */
+    @Override
+    void mergeEntries(Leaf left, Leaf right) {
+        int count = left.copyEntries(scratchKeys, scratchValues, 0);
+        count += right.copyEntries(scratchKeys, scratchValues, count);
+        left.setEntries(scratchKeys, scratchValues, 0, count);
+        Arrays.fill(scratchValues, 0, count, null);
+    }
+
+    /**
+     * @return the value of key, null if the key is not present
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        if (root == null) {
+            return null;
+        }
+        Leaf leaf = findLeaf(key);
+        int index = leaf.lowerBound(key);
+        if (index < leaf.keyCount && leaf.key(index) == key) {
+            return (V) leaf.values[index];
+        }
+        return null;
+    }
+
+    /**
+     * Delete a key
+     * @return the value the key had
+     * @throws KeyNotFoundException if the key is not present
+     * @throws TreeIsEmptyException if the tree is empty
+     */
+    @SuppressWarnings("unchecked")
+    public V delete(long key) {
+        if (root == null) {
+            throw new TreeIsEmptyException();
+        }
+        Leaf leaf = descend(key);
+        int index = leaf.lowerBound(key);
+        if (index == leaf.keyCount || leaf.key(index) != key) {
+            throw new KeyNotFoundException(String.valueOf(key));
+        }
+        V value = (V) leaf.values[index];
+        leaf.removeAt(index);
+        entryRemoved(leaf);
+        return value;
+    }
+
+    /**
+     * Search tree by range
+     * @param key1 First key
+     * @param key2 Second key
+     * @param consumer receives the entries with key1 <= key <= key2 in ascending key order
+     */
+    @SuppressWarnings("unchecked")
+    public void search(long key1, long key2, EntryConsumer<? super V> consumer) {
+        if (root == null) {
+            throw new TreeIsEmptyException();
+        }
+        Leaf leaf = findLeaf(key1);
+        int index = leaf.lowerBound(key1);
+        while (leaf != null) {
+            for (; index < leaf.keyCount; index++) {
+                long key = leaf.key(index);
+                if (key > key2) {
+                    return;
+                }
+                consumer.accept(key, (V) leaf.values[index]);
+            }
+            leaf = (Leaf) leaf.next;
+            index = 0;
+        }
+    }
+
+    /**
+     * View of the tree for callers working with KeyValueTree. The tree itself only takes primitive keys,
+     * with boxed overloads insert(id, locator) would be ambiguous for V = Long.
+     * @return a view that unboxes every key passed in and boxes every key handed out
+     */
+    public KeyValueTree<Long, V> asKeyValueTree() {
+        return new KeyValueTree<Long, V>() {
+            @Override
+            public void insert(Long key, V value) {
+                LongMandyTree.this.insert(key.longValue(), value);
+            }
+
+            @Override
+            public V put(Long key, V value) {
+                return LongMandyTree.this.put(key.longValue(), value);
+            }
+
+            @Override
+            public V get(Long key) {
+                return LongMandyTree.this.get(key.longValue());
+            }
+
+            @Override
+            public V delete(Long key) {
+                return LongMandyTree.this.delete(key.longValue());
+            }
+
+            @Override
+            public void search(Long key1, Long key2, BiConsumer<? super Long, ? super V> consumer) {
+                LongMandyTree.this.search(key1.longValue(), key2.longValue(), consumer::accept);
+            }
+
+            @Override
+            public long size() {
+                return LongMandyTree.this.size();
+            }
+
+            @Override
+            public int getHeight() {
+                return LongMandyTree.this.getHeight();
+            }
+        };
+    }
+}
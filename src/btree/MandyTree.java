@@ -1,12 +1,18 @@
 package btree;
+import java.io.UncheckedIOException;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+import java.util.stream.StreamSupport;
 
 import Utils.Clock;
 import Utils.Utils;
+import Utils.Utils.DuplicateKeyException;
 import Utils.Utils.KeyNotFoundException;
 import Utils.Utils.TreeIsEmptyException;
 import Utils.CLI;
-import Utils.readFile;
+import Utils.RecordReader;
 import Utils.Config;
 
 
@@ -14,27 +20,66 @@ public class MandyTree implements BTree {
     //Tree specific parameters here
     private double MIN_FILL_FACTOR = 0.5;
     private int DEGREE = 4;
+    private KeySearch KEY_SEARCH = KeySearch.BRANCHLESS;
     private Node root = null;
+    private SplitPolicy splitPolicy = SplitPolicy.MIDDLE;
+    private LeafNode rightmostLeaf = null; // last leaf seen at the end of the chain, lets appends skip the descent
+    private RedistributionPolicy redistributionPolicy = RedistributionPolicy.ONE_KEY;
+    private int[] redistributeBuffer = null; // keys of two leaves being redistributed, allocated on first use
 
-    //some internal statistics for debugging
+    //path of the last descent: the index nodes from the root down and the child taken in each. Nodes keep no
+    //parent pointer, so splits and merges walk up this stack. NO_PATH when the leaf was found without a descent.
+    private static final int NO_PATH = -1;
+    private IndexNode[] pathNodes = new IndexNode[8];
+    private int[] pathSlots = new int[8];
+    private int pathLength = NO_PATH;
+
+    //finger cache of recently found leaves, and the version it checks them against: every move of a separator
+    //and every node added or removed counts up, so a remembered key range is never trusted after a change
+    private FingerCache fingers = null;
+    private long structureVersion = 0;
+
+    //lazy rebalancing: underfull leaves left behind by delete, fixed up by compact()
+    private boolean lazyRebalancing = false;
+    private int compactionBatchSize = 1024;
+    private final Set<LeafNode> underflowLeaves = new LinkedHashSet<>();
+
+    //subtree key counts in the index nodes, for count, rank, select and percentile without a scan
+    private boolean aggregateCounts = false;
+
+    //structural events go to the listener, nothing is printed while the tree works
+    private TreeListener listener = TreeListener.NOOP;
+
+    //some internal statistics for debugging, kept up to date by every structural change
     private int totalNode = 0;
     private int height = 0;
     private int dataEntries = 0;
     private int indexEntries = 0;
+    private int[] levelNodes = new int[4]; // number of nodes on each level, leaves at 0
 
     //my constructor
     public MandyTree(double MIN_FILL_FACTOR, int DEGREE) {
+        this(MIN_FILL_FACTOR, DEGREE, KeySearch.BRANCHLESS);
+    }
+
+    /**
+     * @param KEY_SEARCH how keys are located inside a node, see KeySearch for the trade-offs
+     */
+    public MandyTree(double MIN_FILL_FACTOR, int DEGREE, KeySearch KEY_SEARCH) {
         root = null;
         this.MIN_FILL_FACTOR = MIN_FILL_FACTOR;
         this.DEGREE = DEGREE;
+        this.KEY_SEARCH = KEY_SEARCH;
     }
 
     static abstract class Node {
-        protected List<Integer> keys; // List of keys in the node
-        protected Node parent;
+        protected int[] keys; // Keys of the node, only the first keyCount slots are in use
+        protected int keyCount;
+        protected final KeySearch search; // How to locate a key among keys, shared by all nodes of a tree
 
-        public Node() {
-            keys = new ArrayList<>();
+        public Node(int capacity, KeySearch search) {
+            keys = new int[capacity];
+            this.search = search;
         }
 
         public abstract boolean isLeafNode(); // Check if the node is a leaf node
@@ -45,25 +90,26 @@ public class MandyTree implements BTree {
 
         public abstract int getKeyCount(); // Get the number of keys in the node
 
-        public abstract boolean insertKey(Integer key); // Insert a key into the node
+        public abstract int getEntryCount(); // Get the number of keys in the subtree, see setAggregateCounts
 
-        public abstract boolean deleteKey(Integer key); // Delete a key from the node
+        public abstract boolean insertKey(int key); // Insert a key into the node
 
-        public abstract List<Integer> searchKeys(Integer key1, Integer key2); // Search for keys within a range
+        public abstract boolean deleteKey(int key); // Delete a key from the node
 
-        public abstract List<Integer> getAllKeys(); // Get all the keys in the node
+        public abstract List<Integer> searchKeys(int key1, int key2); // Search for keys within a range
 
         public abstract Node getChild(int index); // Get the child node at the specified index
 
         public abstract void setChild(int index, Node child); // Set the child node at the specified index
 
         public abstract void printNode(); // Print the keys in the node
-        public Node getParent() {
-            return parent;
+
+        public int getKey(int index) {
+            return keys[index];
         }
 
-        public void setParent(Node parent) {
-            this.parent = parent;
+        public int[] getAllKeys() {
+            return Arrays.copyOf(keys, keyCount);
         }
     }
 
@@ -71,162 +117,772 @@ public class MandyTree implements BTree {
      * Insert key to tree
      * @param key
      */
-    public void insert(Integer key) {
+    public void insert(int key) {
         if (root == null) {
             // If the tree is empty, create a new leaf node as the root
-            LeafNode leafNode = new LeafNode();
+            LeafNode leafNode = new LeafNode(DEGREE, KEY_SEARCH);
             leafNode.insertKey(key);
             root = leafNode;
+            rightmostLeaf = leafNode;
+            nodeAdded(0);
         } else {
-            // Find the appropriate leaf node to insert the key
-            Node leaf = findLeafNode(key);
+            // Find the appropriate leaf node to insert the key, appends go straight to the right-most leaf
+            LeafNode leaf = appendLeaf(key);
+            if (leaf == null) {
+                leaf = findLeafNode(key);
+            } else {
+                pathLength = NO_PATH;
+            }
+            int index = leaf.getLowerBoundIndex(key);
+            if (index < leaf.getKeyCount() && leaf.getKey(index) == key) {
+                throw new DuplicateKeyException(String.valueOf(key));
+            }
 
             if (leaf.isOverflow(this.DEGREE)) {
                 // If the leaf node is full, split it and propagate the split upwards
-                System.out.println("overflow");
+                if (pathLength == NO_PATH) {
+                    // found without a descent, take the path now that the index nodes above are needed
+                    descend(key);
+                }
                 leaf.insertKey(key);
 
-                IndexNode parent = (IndexNode) leaf.getParent();
-
-                if (parent == null) {
-                    // If the root node is the leaf node, create a new root node
-                    LeafNode newLeafNode = splitLeafNode((LeafNode) leaf);
-                    IndexNode newRootNode = new IndexNode();
-                    newRootNode.insertKey(newLeafNode.getFirstLeafKey());
-                    newRootNode.addChild(0, leaf);
-                    newRootNode.addChild(1, newLeafNode);
-                    root = newRootNode;
-                    leaf.setParent(root);
-                    newLeafNode.setParent(root);
+                IndexNode parent = pathLength > 0 ? pathNodes[pathLength - 1] : null;
+                int slot = pathLength > 0 ? pathSlots[pathLength - 1] : 0;
+                boolean append = leaf.getNext() == null && leaf.getLastLeafKey() == key;
+                //only siblings under the same parent, otherwise the separator lives in another index node
+                LeafNode previous = parent != null && slot > 0 ? (LeafNode) parent.getChild(slot - 1) : null;
+                LeafNode next = parent != null && slot < parent.getKeyCount() ? (LeafNode) parent.getChild(slot + 1) : null;
+                if (redistributionPolicy == RedistributionPolicy.OFF) {
+                    previous = null;
+                    next = null;
                 }
-                else if(((LeafNode) leaf).getPrevious()!=null && !((LeafNode) leaf).getPrevious().isOverflow(DEGREE)) {
+
+                if(previous!=null && !previous.isOverflow(DEGREE)) {
                     //if leafNode's previous have space, redistribute
-                    System.out.println("redistribute to Previous");
-                    LeafNode redistributeTarget=((LeafNode) leaf).getPrevious();
-                    redistributeTarget.insertKey(leaf.keys.get(0));
-                    leaf.keys.remove(leaf.keys.get(0));
-                    int redistributeIndex=parent.getPrevRedistributeKeyIndex(leaf.keys.get(0));
-                    parent.keys.set(redistributeIndex,leaf.keys.get(0));
+                    listener.onRedistribute(true);
+                    structureVersion++;
+                    if (redistributionPolicy == RedistributionPolicy.EVEN) {
+                        shareEvenly(previous, leaf, parent, slot - 1);
+                    } else {
+                        previous.appendKey(leaf.getFirstLeafKey());
+                        leaf.removeAt(0);
+                        parent.keys[slot - 1]=leaf.getFirstLeafKey();
+                    }
+                }
+                else if(next!=null && !next.isOverflow(DEGREE)) {
+                    //if leafNode's next have space, redistribute
+                    listener.onRedistribute(false);
+                    structureVersion++;
+                    if (redistributionPolicy == RedistributionPolicy.EVEN) {
+                        shareEvenly(leaf, next, parent, slot);
+                    } else {
+                        int lastKey=leaf.getLastLeafKey();
+                        next.insertKey(lastKey);
+                        parent.keys[slot]=lastKey;
+                        leaf.removeAt(leaf.getKeyCount()-1);
+                    }
+                }
+                else if (redistributionPolicy == RedistributionPolicy.EVEN && (previous != null || next != null)
+                        && !(append && splitPolicy == SplitPolicy.APPEND)) {
+                    // the siblings are full as well, split two leaves into three, an append split keeps its full leaves
+                    if (next != null) {
+                        splitTwoToThree(leaf, next, parent, slot + 1);
+                    } else {
+                        splitTwoToThree(previous, leaf, parent, slot);
+                    }
+                }
+                else{
+                    // Split the leaf and insert the new leaf into the parent, creating a new root if the leaf was the root
+                    LeafNode newLeafNode = splitLeafNode(leaf, append);
+                    nodeAdded(0);
+                    listener.onLeafSplit();
+                    insertIntoParent(newLeafNode.getFirstLeafKey(), newLeafNode, append);
+                    if (newLeafNode.getNext() == null) {
+                        rightmostLeaf = newLeafNode;
+                    }
+                }
+            } else {
+                // If the leaf node has enough space, insert the key directly
+                leaf.insertKey(key);
+            }
+            if (leaf.getNext() == null) {
+                rightmostLeaf = leaf;
+            }
+            if (aggregateCounts) {
+                recountPath(key);
+            }
+
+        }
+        dataEntries++;
+
+    }
+
+    /**
+     * Spread the keys of two neighbouring leaves of parent evenly over both
+     * @param left left leaf
+     * @param right right neighbour of left under the same parent
+     * @param separator position of the separator between left and right in parent
+     */
+    private void shareEvenly(LeafNode left, LeafNode right, IndexNode parent, int separator) {
+        int total = collectKeys(left, right);
+        int leftCount = total / 2;
+        left.setKeys(redistributeBuffer, 0, leftCount);
+        right.setKeys(redistributeBuffer, leftCount, total - leftCount);
+        parent.keys[separator] = right.getFirstLeafKey();
+    }
+
+    /**
+     * B*-tree split: move the keys of two full neighbouring leaves into three leaves, each about two thirds full,
+     * the new leaf goes between them
+     * @param left left leaf
+     * @param right right neighbour of left under parent, the last index node of the path
+     * @param index position of right among the children of parent
+     */
+    private void splitTwoToThree(LeafNode left, LeafNode right, IndexNode parent, int index) {
+        int total = collectKeys(left, right);
+        int leftCount = total / 3;
+        int middleCount = (total - leftCount) / 2;
+        LeafNode middle = new LeafNode(DEGREE, KEY_SEARCH);
+        left.setKeys(redistributeBuffer, 0, leftCount);
+        middle.setKeys(redistributeBuffer, leftCount, middleCount);
+        right.setKeys(redistributeBuffer, leftCount + middleCount, total - leftCount - middleCount);
+        middle.setPrevious(left);
+        middle.setNext(right);
+        left.setNext(middle);
+        right.setPrevious(middle);
+
+        // middle takes the place of right in the parent, right is then added back as a new right sibling of middle
+        parent.setChild(index, middle);
+        parent.keys[index - 1] = middle.getFirstLeafKey();
+        nodeAdded(0);
+        listener.onLeafSplit();
+        insertIntoParent(right.getFirstLeafKey(), right, false);
+    }
+
+    /**
+     * Copy the keys of left and then right to redistributeBuffer
+     * @return number of keys copied
+     */
+    private int collectKeys(LeafNode left, LeafNode right) {
+        if (redistributeBuffer == null) {
+            redistributeBuffer = new int[2 * DEGREE + 2];
+        }
+        System.arraycopy(left.keys, 0, redistributeBuffer, 0, left.keyCount);
+        System.arraycopy(right.keys, 0, redistributeBuffer, left.keyCount, right.keyCount);
+        return left.keyCount + right.keyCount;
+    }
+
+    /**
+     * @return the right-most leaf if key belongs to it, null if the descent has to find the leaf
+     */
+    private LeafNode appendLeaf(int key) {
+        LeafNode leaf = rightmostLeaf;
+        // a leaf split off by a batch may sit right of it, an empty leaf has no key to compare with
+        if (leaf != null && leaf.getNext() == null && leaf.getKeyCount() > 0 && key >= leaf.getFirstLeafKey()) {
+            return leaf;
+        }
+        return null;
+    }
+
+    /**
+     * Add a node that was split off to the right of the node the path ends in to the last index node of
+     * the path, splitting index nodes upwards while they overflow. If an index node splits, the path no
+     * longer holds the new node's ancestors and is dropped.
+     * @param key separator between the split node and newNode
+     * @param newNode new right sibling of the split node
+     * @param append whether the split node was the right-most leaf, so the index nodes above split as appends too
+     */
+    private void insertIntoParent(int key, Node newNode, boolean append) {
+        int level = 0; // level of newNode
+        for (int depth = pathLength - 1; depth >= 0; depth--) {
+            IndexNode parent = pathNodes[depth];
+            parent.insertChild(key, newNode);
+            if (!parent.isOverflow(this.DEGREE)) {
+                return;
+            }
+            // Handle overflow of the parent index node
+            IndexNode newIndexNode = new IndexNode(DEGREE, KEY_SEARCH);
+            key = splitIndexNode(parent, newIndexNode, append);
+            if (aggregateCounts) {
+                // the half the update did not go to is off its path, so it is counted here
+                parent.recountEntries();
+                newIndexNode.recountEntries();
+            }
+            nodeAdded(level + 1);
+            listener.onIndexSplit();
+            pathLength = NO_PATH;
+            level++;
+            newNode = newIndexNode;
+        }
+
+        // the root was split, create a new root node
+        IndexNode newRootNode = new IndexNode(DEGREE, KEY_SEARCH);
+        newRootNode.setChild(0, root);
+        newRootNode.appendChild(key, newNode);
+        root = newRootNode;
+        pathLength = NO_PATH;
+        nodeAdded(level + 1);
+        listener.onRootSplit();
+    }
+
+    /**
+     * Split an overflowing index node, moving its upper half into newIndexNode
+     * @param indexNode index node to be split, keeps the lower half
+     * @param newIndexNode empty index node receiving the upper half
+     * @param append whether the node is the right-most of its level and took its new separator last
+     * @return the separator at the split point, which has to be pushed up to the parent
+     */
+    private int splitIndexNode(IndexNode indexNode, IndexNode newIndexNode, boolean append) {
+        // Find the index to split the keys
+        int splitIndex = splitPolicy.indexSplitIndex(indexNode.getKeyCount(), append);
 
+        // Move the keys and pointers after the split index into the new index node
+        return indexNode.moveTailTo(splitIndex, newIndexNode);
+    }
+
+    /**
+     * Delete a key from the tree starting from root
+     * @param key key to be deleted
+     */
+    public void delete(int key) {
+        if (root == null) {
+            throw new TreeIsEmptyException();
+        }
+        LeafNode leaf = findLeafNode(key);
+        if (!leaf.deleteKey(key)) {
+            throw new KeyNotFoundException(String.valueOf(key));
+        }
+        dataEntries--;
 
+        if (leaf == root) {
+            if (leaf.getKeyCount() == 0) {
+                root = null;
+                nodeRemoved(0);
+            }
+        } else if (leaf.isUnderflow(DEGREE)) {
+            if (lazyRebalancing && leaf.getKeyCount() > 0) {
+                // leave the leaf underfull for now, it is fixed up in the next compaction batch
+                underflowLeaves.add(leaf);
+                if (underflowLeaves.size() >= compactionBatchSize) {
+                    compact();
                 }
-                else if(((LeafNode) leaf).getNext()!=null && !((LeafNode) leaf).getNext().isOverflow(DEGREE)) {
-                    //if leafNode's previous have space, redistribute
-                    System.out.println("redistribute to Next");
-                    LeafNode redistributeTarget=((LeafNode) leaf).getNext();
-                    redistributeTarget.insertKey(leaf.keys.get(leaf.keys.size()-1));
-                    int redistributeIndex=parent.getNextRedistributeKeyIndex(leaf.keys.get(leaf.keys.size()-1));
-                    parent.keys.set(redistributeIndex,leaf.keys.get(leaf.keys.size()-1));
-                    leaf.keys.remove(leaf.keys.get(leaf.keys.size()-1));
+            } else {
+                // an empty leaf has no key left to find it by later, so it is fixed right away even in lazy mode
+                if (pathLength == NO_PATH) {
+                    descend(key);
+                }
+                rebalance(leaf);
+            }
+        }
+        if (aggregateCounts && root != null) {
+            recountPath(key);
+        }
+    }
 
+    /**
+     * Report structural events (splits, redistributions, merges, descents) to listener, see TreeMetrics
+     * @param listener listener to call, null to stop listening
+     */
+    public void setTreeListener(TreeListener listener) {
+        this.listener = listener == null ? TreeListener.NOOP : listener;
+    }
+
+    /**
+     * Choose where overflowing nodes are split, see SplitPolicy
+     * @param splitPolicy policy of every following split
+     */
+    public void setSplitPolicy(SplitPolicy splitPolicy) {
+        this.splitPolicy = splitPolicy;
+    }
+
+    /**
+     * Remember the leaves of the last descents, so lookups of keys near recent ones skip the index levels.
+     * Pays off for skewed or clustered traffic, costs a short scan per lookup otherwise.
+     * @param size number of leaves to remember, 0 to turn the cache off
+     */
+    public void setFingerCache(int size) {
+        this.fingers = size > 0 ? new FingerCache(size) : null;
+    }
+
+    /**
+     * Choose how an overflowing leaf uses its siblings under the same parent before it splits, see RedistributionPolicy
+     * @param redistributionPolicy policy of every following insert
+     */
+    public void setRedistributionPolicy(RedistributionPolicy redistributionPolicy) {
+        this.redistributionPolicy = redistributionPolicy;
+    }
+
+    /**
+     * Switch between eager rebalancing, where every underflow is fixed right away by borrowing from or
+     * merging with a sibling, and lazy rebalancing, where underfull leaves are tolerated and only fixed
+     * in batches. Turning lazy rebalancing off compacts whatever is still pending.
+     * @param lazy true to defer merges
+     * @param batchSize number of underfull leaves that triggers a compaction pass
+     */
+    public void setLazyRebalancing(boolean lazy, int batchSize) {
+        this.lazyRebalancing = lazy;
+        this.compactionBatchSize = Math.max(1, batchSize);
+        if (!lazy) {
+            compact();
+        }
+    }
+
+    /**
+     * Fix up every leaf left underfull by lazy deletes
+     */
+    public void compact() {
+        for (LeafNode leaf : underflowLeaves) {
+            // leaves merged away earlier in this pass were emptied, a leaf still in the tree is never left empty
+            if (leaf != root && leaf.getKeyCount() > 0 && leaf.isUnderflow(DEGREE)) {
+                // the leaf is found again by its smallest key, the path of the delete that queued it is long gone
+                int first = leaf.getFirstLeafKey();
+                descend(first);
+                rebalance(leaf);
+                if (aggregateCounts) {
+                    pathLength = NO_PATH;
+                    recountPath(first);
                 }
-                else{
-                    // Insert the new key into the parent index node
-                    LeafNode newLeafNode = splitLeafNode((LeafNode) leaf);
-                    parent.insertKey(newLeafNode.getFirstLeafKey());
-                    int insertionIndex = parent.getInsertionIndex(key);
-                    parent.setChild(insertionIndex-1, leaf);
-                    parent.setChild(insertionIndex, newLeafNode);
-                    newLeafNode.setParent(parent);
-
-
-
-                    // Handle potential overflow of the parent index node
-                    while(parent!=null&&parent.isOverflow(this.DEGREE)) {
-                        System.out.println("parent overflow");
-                        int splitIndex = parent.getAllKeys().size() / 2;
-                        int tempKey=parent.getAllKeys().get(splitIndex);
-                        IndexNode[] indexNodeArray = splitIndexNode(parent);
-                        if(parent.getParent()==null){
-                            //new root node
-                            IndexNode newRootNode=new IndexNode();
-                            newRootNode.insertKey(tempKey);
-                            indexNodeArray[0].setParent(newRootNode);
-                            indexNodeArray[1].setParent(newRootNode);
-                            newRootNode.setChild(0,indexNodeArray[0]);
-                            newRootNode.setChild(1,indexNodeArray[1]);
-                            root=newRootNode;
-                            break;
-                        }else{
-                            IndexNode grandParent= (IndexNode) parent.getParent();
-                            grandParent.insertKey(tempKey);
-                            indexNodeArray[0].setParent(grandParent);
-                            indexNodeArray[1].setParent(grandParent);
-                            int lastKeyOfIndexNode0=indexNodeArray[0].keys.get(indexNodeArray[0].keys.size()-1);
-                            int oInsertionIndex= grandParent.getInsertionIndex(lastKeyOfIndexNode0);
-                            grandParent.setChild(oInsertionIndex,indexNodeArray[0]);
-                            grandParent.removeChild(oInsertionIndex+1);
-                            grandParent.setChild(oInsertionIndex+1,indexNodeArray[1]);
-
-                            parent = (IndexNode) parent.getParent();
-                        }
+            }
+        }
+        underflowLeaves.clear();
+        pathLength = NO_PATH;
+    }
+
+    /**
+     * Keep the number of keys under every index node, so count, rank, select and percentile take a single
+     * descent instead of a scan. Every update then recounts the index nodes on its path, and a finger
+     * cache hit still needs a descent for that.
+     * @param enabled true to maintain the counts, false to stop
+     */
+    public void setAggregateCounts(boolean enabled) {
+        aggregateCounts = enabled;
+        if (enabled && root != null) {
+            recountAll(root);
+        }
+    }
+
+    /**
+     * Recount the index nodes on the path to key bottom-up, after an update in the leaf of key.
+     * Index nodes an update reshaped off that path are counted when they are reshaped.
+     */
+    private void recountPath(int key) {
+        if (pathLength == NO_PATH) {
+            descend(key);
+        }
+        for (int depth = pathLength - 1; depth >= 0; depth--) {
+            pathNodes[depth].recountEntries();
+        }
+    }
+
+    /**
+     * Recount every index node under node
+     * @return number of keys under node
+     */
+    private int recountAll(Node node) {
+        if (node.isLeafNode()) {
+            return node.getEntryCount();
+        }
+        IndexNode indexNode = (IndexNode) node;
+        for (int i = 0; i <= indexNode.getKeyCount(); i++) {
+            recountAll(indexNode.getChild(i));
+        }
+        indexNode.recountEntries();
+        return indexNode.getEntryCount();
+    }
 
+    private void requireAggregateCounts() {
+        if (!aggregateCounts) {
+            throw new IllegalStateException("Aggregate counts are off, see setAggregateCounts");
+        }
+    }
 
+    /**
+     * @param key key to look for
+     * @param inclusive whether key itself counts
+     * @return number of keys below key, or up to key if inclusive
+     */
+    private int countBelow(int key, boolean inclusive) {
+        if (root == null) {
+            return 0;
+        }
+        int result = 0;
+        Node node = root;
+        while (!node.isLeafNode()) {
+            IndexNode indexNode = (IndexNode) node;
+            int childIndex = indexNode.getInsertionIndex(key);
+            for (int i = 0; i < childIndex; i++) {
+                result += indexNode.getChild(i).getEntryCount();
+            }
+            node = indexNode.getChild(childIndex);
+        }
+        LeafNode leaf = (LeafNode) node;
+        return result + (inclusive ? leaf.getUpperBoundIndex(key) : leaf.getLowerBoundIndex(key));
+    }
 
+    /**
+     * Count the keys in a range with one descent per bound, needs aggregate counts
+     * @param key1 First key
+     * @param key2 Second key
+     * @return number of keys in [key1, key2]
+     */
+    public int count(int key1, int key2) {
+        requireAggregateCounts();
+        return key1 > key2 ? 0 : countBelow(key2, true) - countBelow(key1, false);
+    }
+
+    /**
+     * Needs aggregate counts
+     * @param key key to look for, need not be in the tree
+     * @return number of keys smaller than key, which is the position key has or would have in sorted order
+     */
+    public int rank(int key) {
+        requireAggregateCounts();
+        return countBelow(key, false);
+    }
+
+    /**
+     * Find the k-th smallest key with one descent, needs aggregate counts
+     * @param k position in sorted order, from 0
+     * @return the key at position k
+     * @throws IndexOutOfBoundsException if k is negative or not below the number of keys
+     */
+    public int select(int k) {
+        requireAggregateCounts();
+        if (k < 0 || k >= dataEntries) {
+            throw new IndexOutOfBoundsException("Position " + k + " of " + dataEntries + " keys");
+        }
+        Node node = root;
+        while (!node.isLeafNode()) {
+            IndexNode indexNode = (IndexNode) node;
+            int childIndex = 0;
+            while (k >= indexNode.getChild(childIndex).getEntryCount()) {
+                k -= indexNode.getChild(childIndex).getEntryCount();
+                childIndex++;
+            }
+            node = indexNode.getChild(childIndex);
+        }
+        return node.getKey(k);
+    }
+
+    /**
+     * Nearest-rank percentile, needs aggregate counts
+     * @param percent between 0 and 100
+     * @return the smallest key with at least percent of the keys at or below it
+     * @throws IndexOutOfBoundsException if the tree is empty
+     */
+    public int percentile(double percent) {
+        if (percent < 0 || percent > 100) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100, got " + percent);
+        }
+        int position = (int) Math.ceil(percent / 100 * dataEntries) - 1;
+        return select(Math.max(0, position));
+    }
+
+    /**
+     * Apply a batch of mutations with one descent per touched leaf instead of one per mutation.
+     * The batch is sorted by key, stable so mutations of the same key keep their order, and every run of
+     * mutations falling into the same leaf is merged with the leaf's keys in a single pass. A leaf that
+     * outgrows its capacity is split once into as many leaves as needed; one that underflows is
+     * rebalanced once, or queued in lazy mode.
+     * @param batch inserts and deletes, in the order they were issued
+     * @return number of mutations rejected, inserts of a present key or deletes of a missing one, which are skipped
+     */
+    @Override
+    public int applyBatch(UpdateBatch batch) {
+        int size = batch.size();
+        // key in the upper half, position in the batch in the lower half, so sorting is stable
+        long[] order = new long[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = (long) batch.getKey(i) << 32 | i;
+        }
+        Arrays.sort(order);
 
+        int rejected = 0;
+        int[] merged = new int[DEGREE + size];
+        int position = 0;
+        while (position < size) {
+            if (root == null) {
+                root = new LeafNode(DEGREE, KEY_SEARCH);
+                nodeAdded(0);
+            }
+            // descend to the leaf of the smallest pending key, the tightest separator to the right of the
+            // path, the deepest one, bounds the keys that belong to the same leaf
+            int first = batchKey(order[position]);
+            LeafNode leaf = descend(first);
+            long upper = Long.MAX_VALUE;
+            for (int depth = pathLength - 1; depth >= 0; depth--) {
+                if (pathSlots[depth] < pathNodes[depth].getKeyCount()) {
+                    upper = pathNodes[depth].getKey(pathSlots[depth]);
+                    break;
+                }
+            }
 
+            // merge the run of mutations below the bound into the leaf's keys
+            int count = 0;
+            int k = 0;
+            int n = leaf.getKeyCount();
+            while (position < size && batchKey(order[position]) < upper) {
+                int key = batchKey(order[position]);
+                while (k < n && leaf.getKey(k) < key) {
+                    merged[count++] = leaf.getKey(k++);
+                }
+                boolean present = k < n && leaf.getKey(k) == key;
+                if (present) {
+                    k++;
+                }
+                // replay the mutations of the key in order, an insert of a present key or a delete of a missing one is rejected
+                for (; position < size && batchKey(order[position]) == key; position++) {
+                    if (batch.isInsert((int) order[position]) == present) {
+                        rejected++;
+                    } else {
+                        present = !present;
                     }
                 }
-            } else {
-                // If the leaf node has enough space, insert the key directly
-                ((LeafNode) leaf).insertKey(key);
+                if (present) {
+                    merged[count++] = key;
+                }
+            }
+            while (k < n) {
+                merged[count++] = leaf.getKey(k++);
             }
+            dataEntries += count - n;
+            writeLeaf(leaf, first, merged, count);
+        }
+        return rejected;
+    }
 
+    private static int batchKey(long entry) {
+        return (int) (entry >> 32);
+    }
+
+    /**
+     * Store the merged keys of a leaf, splitting it evenly into as few leaves as hold them, or
+     * rebalancing it if it became underfull
+     * @param leaf leaf the keys were merged from
+     * @param first key the leaf was found by
+     * @param merged sorted keys
+     * @param count number of keys in merged
+     */
+    private void writeLeaf(LeafNode leaf, int first, int[] merged, int count) {
+        if (count <= DEGREE) {
+            leaf.setKeys(merged, 0, count);
+            if (leaf == root) {
+                if (count == 0) {
+                    root = null;
+                    nodeRemoved(0);
+                }
+            } else if (leaf.isUnderflow(DEGREE)) {
+                if (lazyRebalancing && count > 0) {
+                    underflowLeaves.add(leaf);
+                    if (underflowLeaves.size() >= compactionBatchSize) {
+                        compact();
+                    }
+                } else {
+                    rebalance(leaf);
+                }
+            }
+            if (aggregateCounts && root != null) {
+                recountPath(first);
+            }
+            return;
         }
 
+        int pieces = (count + DEGREE - 1) / DEGREE;
+        listener.onLeafSplit();
+        int end = count / pieces;
+        leaf.setKeys(merged, 0, end);
+        LeafNode current = leaf;
+        for (int piece = 1; piece < pieces; piece++) {
+            int start = end;
+            if (pathLength == NO_PATH) {
+                // an index node split under the previous piece, find the parent of current again
+                descend(current.getFirstLeafKey());
+            }
+            end = (int) ((long) count * (piece + 1) / pieces);
+            LeafNode newLeafNode = new LeafNode(DEGREE, KEY_SEARCH);
+            newLeafNode.setKeys(merged, start, end - start);
+            newLeafNode.setNext(current.getNext());
+            newLeafNode.setPrevious(current);
+            if (current.getNext() != null) {
+                current.getNext().setPrevious(newLeafNode);
+            }
+            current.setNext(newLeafNode);
+            nodeAdded(0);
+            insertIntoParent(merged[start], newLeafNode, false);
+            current = newLeafNode;
+        }
+        if (aggregateCounts) {
+            // recount the path of every piece, in order, so a shared index node is counted after its children
+            pathLength = NO_PATH;
+            recountPath(first);
+            for (int piece = 1; piece < pieces; piece++) {
+                pathLength = NO_PATH;
+                recountPath(merged[(int) ((long) count * piece / pieces)]);
+            }
+        }
     }
-    private IndexNode[] splitIndexNode(IndexNode indexNode) {
-        // Create a new leaf node
-        IndexNode leftIndexNode = new IndexNode();
-        IndexNode rightIndexNode=new IndexNode();
 
-        // Find the index to split the keys
-        int splitIndex = indexNode.getAllKeys().size() / 2;
+    private int minKeys() {
+        return (int) Math.ceil((DEGREE - 1) / 2.0);
+    }
 
-        // Move half of the keys from the original index node to the new index node
-        List<Integer> originalKeys = indexNode.getAllKeys();
-        List<Integer> leftIndexNodeKeys = new ArrayList<>(originalKeys.subList(0, splitIndex));
-        List<Integer> rightIndexNodeKeys = new ArrayList<>(originalKeys.subList(splitIndex+1, originalKeys.size()));
-        leftIndexNode.setKeys(leftIndexNodeKeys);
-        rightIndexNode.setKeys(rightIndexNodeKeys);
+    /**
+     * Fix an underfull leaf until it holds enough keys again or is the root. A batch can empty a leaf,
+     * and a lazy sibling may be underfull itself, so a single borrow or merge may not be enough.
+     * @param leaf underfull leaf, the path must lead to it
+     */
+    private void rebalance(LeafNode leaf) {
+        while (leaf != root && leaf.isUnderflow(DEGREE)) {
+            if (pathLength == NO_PATH) {
+                // a merge reshaped the path, the survivor holds the keys of both leaves
+                descend(leaf.getFirstLeafKey());
+            }
+            leaf = rebalanceLeaf(leaf);
+        }
+    }
 
-        // Update pointers of the index nodes
-        List<MandyTree.Node> pointers= indexNode.getAllPointer();
-        List<MandyTree.Node> leftIndexNodePointers = new ArrayList<>(pointers.subList(0, splitIndex+1));
-        List<MandyTree.Node> rightIndexNodePointers = new ArrayList<>(pointers.subList(splitIndex+1, originalKeys.size()+1));
-        leftIndexNode.setPointers(leftIndexNodePointers);
-        rightIndexNode.setPointers(rightIndexNodePointers);
+    /**
+     * Fix an underfull leaf by borrowing a key from a sibling under the same parent,
+     * or by merging it with one when neither sibling can spare a key. A merge drops the path.
+     * @param leaf underfull leaf, not the root, the path must lead to it
+     * @return the leaf that now holds the keys of leaf
+     */
+    private LeafNode rebalanceLeaf(LeafNode leaf) {
+        int depth = pathLength - 1;
+        IndexNode parent = pathNodes[depth];
+        int index = pathSlots[depth];
+        LeafNode left = index > 0 ? (LeafNode) parent.getChild(index - 1) : null;
+        LeafNode right = index < parent.getKeyCount() ? (LeafNode) parent.getChild(index + 1) : null;
 
-        // set parents of each leaf nodes
-        leftIndexNodePointers.forEach((item)->item.setParent(leftIndexNode));
-        rightIndexNodePointers.forEach((item)->item.setParent(rightIndexNode));
+        if (left != null && left.getKeyCount() > minKeys()) {
+            // borrow the largest key of the left sibling
+            int borrowed = left.getLastLeafKey();
+            left.removeAt(left.getKeyCount() - 1);
+            leaf.insertKey(borrowed);
+            parent.keys[index - 1] = borrowed;
+            listener.onBorrow(true);
+            structureVersion++;
+            return leaf;
+        }
+        if (right != null && right.getKeyCount() > minKeys()) {
+            // borrow the smallest key of the right sibling
+            leaf.appendKey(right.getFirstLeafKey());
+            right.removeAt(0);
+            parent.keys[index] = right.getFirstLeafKey();
+            listener.onBorrow(true);
+            structureVersion++;
+            return leaf;
+        }
 
-        return new IndexNode[]{leftIndexNode,rightIndexNode};
+        LeafNode survivor;
+        if (left != null) {
+            left.absorb(leaf);
+            unlinkLeaf(leaf);
+            parent.removeSeparator(index - 1);
+            survivor = left;
+        } else {
+            leaf.absorb(right);
+            unlinkLeaf(right);
+            parent.removeSeparator(index);
+            survivor = leaf;
+        }
+        nodeRemoved(0);
+        listener.onMerge(true);
+        rebalanceIndex(depth);
+        pathLength = NO_PATH;
+        return survivor;
     }
 
     /**
-     * Delete a key from the tree starting from root
-     * @param key key to be deleted
+     * Take an emptied leaf out of the leaf chain
      */
-    public void delete(Integer key) {
+    private void unlinkLeaf(LeafNode leaf) {
+        if (leaf.getPrevious() != null) {
+            leaf.getPrevious().setNext(leaf.getNext());
+        }
+        if (leaf.getNext() != null) {
+            leaf.getNext().setPrevious(leaf.getPrevious());
+        }
     }
+
     /**
-     * Delete a key from the tree starting from root
+     * Fix an index node of the path that lost a child, borrowing through the parent or merging with a sibling,
+     * and continue upwards while the parent underflows in turn
+     * @param depth position of the index node that just lost a key in the path
+     */
+    private void rebalanceIndex(int depth) {
+        int level = 1; // level of node, its children are leaves
+        IndexNode node = pathNodes[depth];
+        while (depth > 0 && node.isUnderflow(DEGREE)) {
+            IndexNode parent = pathNodes[depth - 1];
+            int index = pathSlots[depth - 1];
+            IndexNode left = index > 0 ? (IndexNode) parent.getChild(index - 1) : null;
+            IndexNode right = index < parent.getKeyCount() ? (IndexNode) parent.getChild(index + 1) : null;
+
+            if (left != null && left.getKeyCount() > minKeys()) {
+                // rotate the last child of the left sibling over, its key replaces the separator
+                Node child = left.getChild(left.getKeyCount());
+                int separator = left.getKey(left.getKeyCount() - 1);
+                left.removeSeparator(left.getKeyCount() - 1);
+                node.prependChild(parent.keys[index - 1], child);
+                parent.keys[index - 1] = separator;
+                if (aggregateCounts) {
+                    left.recountEntries();
+                }
+                listener.onBorrow(false);
+                structureVersion++;
+                return;
+            }
+            if (right != null && right.getKeyCount() > minKeys()) {
+                // rotate the first child of the right sibling over
+                Node child = right.getChild(0);
+                int separator = right.getKey(0);
+                right.removeFirstChild();
+                node.appendChild(parent.keys[index], child);
+                parent.keys[index] = separator;
+                if (aggregateCounts) {
+                    right.recountEntries();
+                }
+                listener.onBorrow(false);
+                structureVersion++;
+                return;
+            }
+
+            if (left != null) {
+                left.absorb(parent.keys[index - 1], node);
+                parent.removeSeparator(index - 1);
+            } else {
+                node.absorb(parent.keys[index], right);
+                parent.removeSeparator(index);
+            }
+            nodeRemoved(level);
+            listener.onMerge(false);
+            level++;
+            depth--;
+            node = parent;
+        }
+
+        if (node == root && node.getKeyCount() == 0) {
+            // the root lost its last separator, its only child becomes the new root
+            root = node.getChild(0);
+            nodeRemoved(height - 1);
+            listener.onRootCollapse();
+        }
+    }
+    /**
+     * Split a leaf node
      * @param leaf leaf node to be spilt
+     * @param append whether leaf is the right-most leaf and took its new key last
      */
-    private LeafNode splitLeafNode(LeafNode leaf) {
+    private LeafNode splitLeafNode(LeafNode leaf, boolean append) {
         // Create a new leaf node
-        LeafNode newLeafNode = new LeafNode();
+        LeafNode newLeafNode = new LeafNode(DEGREE, KEY_SEARCH);
 
         // Find the index to split the keys
-        int splitIndex = leaf.getAllKeys().size() / 2;
+        int splitIndex = splitPolicy.leafSplitIndex(leaf.getKeyCount(), append);
 
         // Move half of the keys from the original leaf node to the new leaf node
-        List<Integer> originalKeys = leaf.getAllKeys();
-        List<Integer> newKeys = new ArrayList<>(originalKeys.subList(splitIndex, originalKeys.size()));
-        originalKeys.subList(splitIndex, originalKeys.size()).clear();
-        newLeafNode.setKeys(newKeys);
-        leaf.setKeys(originalKeys);
+        leaf.moveTailTo(splitIndex, newLeafNode);
         // Update the next and previous pointers of the leaf nodes
         newLeafNode.setNext(leaf.getNext());
         newLeafNode.setPrevious(leaf);
@@ -245,33 +901,610 @@ public class MandyTree implements BTree {
      * @param key2 Second key
      * @return List of keys
      */
-    public List<Integer> search(Integer key1, Integer key2) {
-        return (new ArrayList<Integer>());
+    public List<Integer> search(int key1, int key2) {
+        List<Integer> result = new ArrayList<>();
+        search(key1, key2, result::add);
+        return result;
+    }
+
+    /**
+     * Search tree by range without collecting the keys: descend once to the leaf of key1,
+     * then follow the leaf chain until a key beyond key2 shows up
+     * @param key1 First key
+     * @param key2 Second key
+     * @param consumer receives the keys in ascending order
+     */
+    @Override
+    public void search(int key1, int key2, IntConsumer consumer) {
+        if (root == null) {
+            throw new TreeIsEmptyException();
+        }
+        LeafNode leaf = findLeafNode(key1);
+        int index = leaf.getLowerBoundIndex(key1);
+        while (leaf != null) {
+            int keyCount = leaf.getKeyCount();
+            for (; index < keyCount; index++) {
+                int key = leaf.getKey(index);
+                if (key > key2) {
+                    return;
+                }
+                consumer.accept(key);
+            }
+            leaf = leaf.getNext();
+            index = 0;
+        }
+    }
+
+    /**
+     * Search tree by range lazily, the leaf chain is only walked as far as the iterator is consumed
+     * @param key1 First key
+     * @param key2 Second key
+     * @return iterator over the keys in ascending order
+     */
+    @Override
+    public PrimitiveIterator.OfInt searchIterator(int key1, int key2) {
+        if (root == null) {
+            throw new TreeIsEmptyException();
+        }
+        LeafNode leaf = findLeafNode(key1);
+        return new RangeIterator(leaf, leaf.getLowerBoundIndex(key1), key2);
+    }
+
+    /**
+     * Iterator over the keys of the leaf chain, starting at a given position and stopping after an upper bound
+     */
+    private static class RangeIterator implements PrimitiveIterator.OfInt {
+        private LeafNode leaf;
+        private int index;
+        private final int upperKey;
+
+        RangeIterator(LeafNode leaf, int index, int upperKey) {
+            this.leaf = leaf;
+            this.index = index;
+            this.upperKey = upperKey;
+            skipExhaustedLeaves();
+        }
+
+        private void skipExhaustedLeaves() {
+            while (leaf != null && index >= leaf.getKeyCount()) {
+                leaf = leaf.getNext();
+                index = 0;
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return leaf != null && leaf.getKey(index) <= upperKey;
+        }
+
+        @Override
+        public int nextInt() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            int key = leaf.getKey(index++);
+            skipExhaustedLeaves();
+            return key;
+        }
+    }
+
+    /**
+     * Search tree by range in descending order: descend once to the leaf of key2,
+     * then follow the leaf chain backwards until a key below key1 shows up
+     * @param key1 First key
+     * @param key2 Second key
+     * @param consumer receives the keys in descending order
+     */
+    public void searchDescending(int key1, int key2, IntConsumer consumer) {
+        if (root == null) {
+            throw new TreeIsEmptyException();
+        }
+        LeafNode leaf = findLeafNode(key2);
+        int index = leaf.getUpperBoundIndex(key2) - 1;
+        while (leaf != null) {
+            for (; index >= 0; index--) {
+                int key = leaf.getKey(index);
+                if (key < key1) {
+                    return;
+                }
+                consumer.accept(key);
+            }
+            leaf = leaf.getPrevious();
+            if (leaf != null) {
+                index = leaf.getKeyCount() - 1;
+            }
+        }
+    }
+
+    /**
+     * @return a cursor over the keys of this tree, not positioned yet
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Stateful position on a key of the leaf chain, moved with seek, next and prev.
+     *
+     * The cursor remembers the version of its leaf. As long as the leaf is unchanged, next and prev step along
+     * the chain without a descent; after the tree changed under it, the cursor finds its key again from the
+     * root and moves on from there, so it never repeats or skips a key that was there before and after.
+     */
+    public final class Cursor {
+        private LeafNode leaf = null; // null when the cursor is not on a key
+        private int index;
+        private int version; // version of leaf when the cursor moved to it
+        private int key;
+
+        private Cursor() {
+        }
+
+        /**
+         * Move to the smallest key >= key
+         * @return whether there is such a key
+         */
+        public boolean seek(int key) {
+            if (root == null) {
+                leaf = null;
+                return false;
+            }
+            leaf = findLeafNode(key);
+            index = leaf.getLowerBoundIndex(key);
+            return settleForward();
+        }
+
+        /**
+         * Move to the largest key <= key
+         * @return whether there is such a key
+         */
+        public boolean seekFloor(int key) {
+            if (root == null) {
+                leaf = null;
+                return false;
+            }
+            leaf = findLeafNode(key);
+            index = leaf.getUpperBoundIndex(key) - 1;
+            return settleBackward();
+        }
+
+        /**
+         * Move to the smallest key of the tree
+         * @return false if the tree is empty
+         */
+        public boolean seekFirst() {
+            return seek(Integer.MIN_VALUE);
+        }
+
+        /**
+         * Move to the largest key of the tree
+         * @return false if the tree is empty
+         */
+        public boolean seekLast() {
+            return seekFloor(Integer.MAX_VALUE);
+        }
+
+        /**
+         * Move to the next larger key
+         * @return whether there is one, the cursor is off the keys otherwise
+         */
+        public boolean next() {
+            if (leaf == null) {
+                return false;
+            }
+            if (leaf.getVersion() != version) {
+                // the leaf changed, find the current key again and step past it
+                int current = key;
+                return seek(current) && (key != current || next());
+            }
+            index++;
+            return settleForward();
+        }
+
+        /**
+         * Move to the next smaller key
+         * @return whether there is one, the cursor is off the keys otherwise
+         */
+        public boolean prev() {
+            if (leaf == null) {
+                return false;
+            }
+            if (leaf.getVersion() != version) {
+                int current = key;
+                return seekFloor(current) && (key != current || prev());
+            }
+            index--;
+            return settleBackward();
+        }
+
+        /**
+         * @return whether the cursor is on a key
+         */
+        public boolean isValid() {
+            return leaf != null;
+        }
+
+        /**
+         * @return the key the cursor is on
+         * @throws NoSuchElementException if the cursor is not on a key
+         */
+        public int key() {
+            if (leaf == null) {
+                throw new NoSuchElementException();
+            }
+            return key;
+        }
+
+        /**
+         * @return a token to resume at the current key later, from this or another cursor of the tree
+         * @throws NoSuchElementException if the cursor is not on a key
+         */
+        public CursorToken token() {
+            if (leaf == null) {
+                throw new NoSuchElementException();
+            }
+            return new CursorToken(MandyTree.this, leaf, index, version, key);
+        }
+
+        /**
+         * Move to the key of token, without a descent if its leaf did not change since. If the key is gone,
+         * move to the smallest key above it, as seek would.
+         * @return whether the cursor is on a key
+         */
+        public boolean resume(CursorToken token) {
+            if (token.tree == MandyTree.this && token.leaf.getVersion() == token.version) {
+                leaf = token.leaf;
+                index = token.index;
+                version = token.version;
+                key = token.key;
+                return true;
+            }
+            return seek(token.key);
+        }
+
+        /**
+         * Skip exhausted leaves forwards and read the key at the position
+         */
+        private boolean settleForward() {
+            while (index >= leaf.getKeyCount()) {
+                leaf = leaf.getNext();
+                if (leaf == null) {
+                    return false;
+                }
+                index = 0;
+            }
+            version = leaf.getVersion();
+            key = leaf.getKey(index);
+            return true;
+        }
+
+        /**
+         * Skip exhausted leaves backwards and read the key at the position
+         */
+        private boolean settleBackward() {
+            while (index < 0) {
+                leaf = leaf.getPrevious();
+                if (leaf == null) {
+                    return false;
+                }
+                index = leaf.getKeyCount() - 1;
+            }
+            version = leaf.getVersion();
+            key = leaf.getKey(index);
+            return true;
+        }
+    }
+
+    /**
+     * Position of a cursor, kept to resume a paged scan. A service that has to hand the position to a
+     * client can hand out getKey() instead and seek to it later, at the cost of a descent.
+     */
+    public static final class CursorToken {
+        private final MandyTree tree;
+        private final LeafNode leaf;
+        private final int index;
+        private final int version;
+        private final int key;
+
+        private CursorToken(MandyTree tree, LeafNode leaf, int index, int version, int key) {
+            this.tree = tree;
+            this.leaf = leaf;
+            this.index = index;
+            this.version = version;
+            this.key = key;
+        }
+
+        /**
+         * @return the key the cursor was on
+         */
+        public int getKey() {
+            return key;
+        }
+    }
+
+    /**
+     * Search tree by range as a stream, in parallel the range is split along the separators of the index
+     * so every worker scans its own run of leaves. The tree must not change while the stream is consumed.
+     * @param key1 First key
+     * @param key2 Second key
+     * @param parallel whether the stream is parallel
+     * @return stream of the keys in ascending order
+     */
+    public IntStream searchStream(int key1, int key2, boolean parallel) {
+        return StreamSupport.intStream(searchSpliterator(key1, key2), parallel);
+    }
+
+    /**
+     * @param key1 First key
+     * @param key2 Second key
+     * @return spliterator over the keys in [key1, key2], ascending
+     */
+    public Spliterator.OfInt searchSpliterator(int key1, int key2) {
+        if (root == null) {
+            throw new TreeIsEmptyException();
+        }
+        return new RangeSpliterator(key1, key2, dataEntries);
+    }
+
+    /**
+     * Spliterator over the keys in [low, high]. Until it starts walking the leaf chain, it splits its range
+     * at a separator of the first index node whose children the range spans, in the middle of those children.
+     */
+    private class RangeSpliterator implements Spliterator.OfInt {
+        private int low;
+        private final int high;
+        private long estimate;
+        private LeafNode leaf = null; // position of the walk, null until it starts
+        private int index;
+
+        RangeSpliterator(int low, int high, long estimate) {
+            this.low = low;
+            this.high = high;
+            this.estimate = estimate;
+        }
+
+        @Override
+        public Spliterator.OfInt trySplit() {
+            if (leaf != null || low >= high) {
+                return null;
+            }
+            Node node = root;
+            while (!node.isLeafNode()) {
+                IndexNode indexNode = (IndexNode) node;
+                int first = indexNode.getInsertionIndex(low);
+                int last = indexNode.getInsertionIndex(high);
+                if (first < last) {
+                    // child middle holds the keys from separator middle - 1 on, which lies in (low, high]
+                    int middle = (first + last + 1) >>> 1;
+                    int separator = indexNode.getKey(middle - 1);
+                    RangeSpliterator prefix = new RangeSpliterator(low, separator - 1, estimate / 2);
+                    low = separator;
+                    estimate -= prefix.estimate;
+                    return prefix;
+                }
+                node = indexNode.getChild(first);
+            }
+            // the range lies within a single leaf
+            return null;
+        }
+
+        private boolean start() {
+            if (leaf == null) {
+                if (low > high) {
+                    return false;
+                }
+                // workers of a parallel stream share the tree, but not the finger cache
+                leaf = descendToLeaf(low);
+                index = leaf.getLowerBoundIndex(low);
+            }
+            while (index >= leaf.getKeyCount()) {
+                LeafNode next = leaf.getNext();
+                if (next == null) {
+                    return false;
+                }
+                leaf = next;
+                index = 0;
+            }
+            return leaf.getKey(index) <= high;
+        }
+
+        @Override
+        public boolean tryAdvance(IntConsumer action) {
+            if (!start()) {
+                return false;
+            }
+            action.accept(leaf.getKey(index++));
+            return true;
+        }
+
+        @Override
+        public void forEachRemaining(IntConsumer action) {
+            while (start()) {
+                int keyCount = leaf.getKeyCount();
+                for (; index < keyCount; index++) {
+                    int key = leaf.getKey(index);
+                    if (key > high) {
+                        return;
+                    }
+                    action.accept(key);
+                }
+            }
+        }
+
+        @Override
+        public long estimateSize() {
+            return estimate;
+        }
+
+        @Override
+        public int characteristics() {
+            return ORDERED | SORTED | NONNULL;
+        }
+
+        @Override
+        public Comparator<? super Integer> getComparator() {
+            // natural order
+            return null;
+        }
+    }
+
+    /**
+     * Find the leaf of key, in the finger cache if there is one and by a descent otherwise.
+     * A leaf from the cache comes without a path.
+     */
+    private LeafNode findLeafNode(int key) {
+        if (fingers != null) {
+            LeafNode leaf = fingers.find(key, structureVersion);
+            if (leaf != null) {
+                listener.onFingerHit();
+                pathLength = NO_PATH;
+                return leaf;
+            }
+        }
+        return descend(key);
+    }
+
+    /**
+     * Descend from the root to the leaf of key, remembering the path for a split or merge
+     */
+    private LeafNode descend(int key) {
+        Node currentNode = root;
+        pathLength = 0;
+        while (!currentNode.isLeafNode()) {
+            IndexNode indexNode = (IndexNode) currentNode;
+            int childIndex = indexNode.getInsertionIndex(key);
+            if (pathLength == pathNodes.length) {
+                pathNodes = Arrays.copyOf(pathNodes, pathLength * 2);
+                pathSlots = Arrays.copyOf(pathSlots, pathLength * 2);
+            }
+            pathNodes[pathLength] = indexNode;
+            pathSlots[pathLength] = childIndex;
+            pathLength++;
+            currentNode = indexNode.getChild(childIndex);
+        }
+        listener.onDescent(pathLength + 1);
+
+        if (fingers != null) {
+            // the deepest separators passed on either side bound the key range of the leaf
+            long low = Long.MIN_VALUE;
+            long high = Long.MAX_VALUE;
+            for (int depth = pathLength - 1; depth >= 0 && low == Long.MIN_VALUE; depth--) {
+                if (pathSlots[depth] > 0) {
+                    low = pathNodes[depth].getKey(pathSlots[depth] - 1);
+                }
+            }
+            for (int depth = pathLength - 1; depth >= 0 && high == Long.MAX_VALUE; depth--) {
+                if (pathSlots[depth] < pathNodes[depth].getKeyCount()) {
+                    high = pathNodes[depth].getKey(pathSlots[depth]);
+                }
+            }
+            fingers.remember((LeafNode) currentNode, low, high, structureVersion);
+        }
+        return (LeafNode) currentNode;
     }
 
-    private LeafNode findLeafNode(Integer key) {
+    /**
+     * Descend from the root to the leaf of key, without the finger cache
+     */
+    private LeafNode descendToLeaf(int key) {
         Node currentNode = root;
+        int visited = 1;
 
         while (!currentNode.isLeafNode()) {
             IndexNode indexNode = (IndexNode) currentNode;
             int childIndex = indexNode.getInsertionIndex(key);
             currentNode = indexNode.getChild(childIndex);
+            visited++;
         }
 
+        listener.onDescent(visited);
         return (LeafNode) currentNode;
     }
     /**
-     * Print statistics of the current tree
+     * Write the keys of the tree to an immutable snapshot file that MappedSnapshot.open can serve
+     * @param fileName snapshot file, overwritten if it exists
+     */
+    public void exportSnapshot(String fileName) {
+        PrimitiveIterator.OfInt keys = root == null
+                ? IntStream.empty().iterator()
+                : searchIterator(Integer.MIN_VALUE, Integer.MAX_VALUE);
+        MappedSnapshot.write(fileName, keys, MappedSnapshot.DEFAULT_FANOUT);
+    }
+
+    private void nodeAdded(int level) {
+        structureVersion++;
+        if (level == height) {
+            if (height == levelNodes.length) {
+                levelNodes = Arrays.copyOf(levelNodes, Math.max(1, height * 2));
+            }
+            height++;
+        }
+        levelNodes[level]++;
+        totalNode++;
+        // every child but the first of an index node sits right of a separator, so one per leaf but one
+        indexEntries = Math.max(0, levelNodes[0] - 1);
+    }
+
+    private void nodeRemoved(int level) {
+        structureVersion++;
+        if (level == 0) {
+            // the removed leaf may be the cached right-most one, which still looks like the end of the chain
+            rightmostLeaf = null;
+        }
+        levelNodes[level]--;
+        totalNode--;
+        if (levelNodes[level] == 0 && level == height - 1) {
+            height--;
+        }
+        indexEntries = Math.max(0, levelNodes[0] - 1);
+    }
+
+    public int getTotalNodes() {
+        return totalNode;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getDataEntries() {
+        return dataEntries;
+    }
+
+    public int getIndexEntries() {
+        return indexEntries;
+    }
+
+    /**
+     * @return number of nodes on each level, the root level first
+     */
+    public int[] getLevelNodeCounts() {
+        int[] result = new int[height];
+        for (int level = 0; level < height; level++) {
+            result[height - 1 - level] = levelNodes[level];
+        }
+        return result;
+    }
+
+    /**
+     * @return data entries over the capacity of all leaves, 0 for an empty tree
+     */
+    public double getAverageFillFactor() {
+        return height == 0 ? 0 : (double) dataEntries / ((long) levelNodes[0] * DEGREE);
+    }
+
+    /**
+     * Print statistics of the current tree, all maintained on the fly so nothing is traversed
      */
     @Override
     public void dumpStatistics() {
         System.out.println("Statistics of the B+ Tree:");
-        System.out.println("Total number of nodes: ");
-        System.out.println("Total number of data entries: ");
-        System.out.println("Total number of index entries: ");
+        System.out.println("Total number of nodes: " + totalNode);
+        System.out.println("Total number of data entries: " + dataEntries);
+        System.out.println("Total number of index entries: " + indexEntries);
         System.out.print("Average fill factor: ");
-        System.out.println("%");
-        System.out.println("Height of tree: ");
+        System.out.println(String.format("%.2f", getAverageFillFactor() * 100) + "%");
+        System.out.println("Height of tree: " + height);
+        System.out.println("Nodes per level: " + Arrays.toString(getLevelNodeCounts()));
     }
     /**
      * Print tree from root
@@ -310,12 +1543,65 @@ public class MandyTree implements BTree {
 
     @Override
     public void load(String datafilename) {
-        String[] readLines = readFile.readData(datafilename);
-        //Fill in you work here
-        for(int i=0; i<readLines.length;i++){
-            insert(Integer.parseInt(readLines[i]));
+        try (RecordReader reader = new RecordReader(datafilename)) {
+            boolean more = reader.nextLine();
+            if (root == null) {
+                more = bulkLoad(reader, more);
+            }
+            // unsorted input, or loading into a non-empty tree, goes through the normal insert path
+            for (; more; more = reader.nextLine()) {
+                insert(reader.nextInt());
+            }
         }
+    }
 
+    /**
+     * Build the empty tree bottom-up from the keys of reader for as long as they stay ascending,
+     * data files are written sorted. The first key out of order is inserted normally.
+     * The keys are collected first, then the levels are built in parallel on the common pool.
+     * @param more whether reader is on a line
+     * @return whether reader is on a line that is not loaded yet
+     */
+    private boolean bulkLoad(RecordReader reader, boolean more) {
+        int[] keys = new int[1 << 16];
+        int count = 0;
+        boolean unsorted = false;
+        int key = 0;
+        for (; more; more = reader.nextLine()) {
+            key = reader.nextInt();
+            if (count > 0 && key <= keys[count - 1]) {
+                unsorted = true;
+                break;
+            }
+            if (count == keys.length) {
+                keys = Arrays.copyOf(keys, count * 2);
+            }
+            keys[count++] = key;
+        }
+        BulkLoader loader = new BulkLoader(DEGREE, MIN_FILL_FACTOR, KEY_SEARCH, ForkJoinPool.commonPool());
+        loader.addAll(keys, count);
+        root = loader.finish();
+        if (aggregateCounts && root != null) {
+            recountAll(root);
+        }
+        rightmostLeaf = null;
+        structureVersion++;
+        if (root != null) {
+            // an empty file builds no levels, the statistics of the empty tree stay as they are
+            levelNodes = loader.getLevelSizes();
+            height = levelNodes.length;
+            totalNode = 0;
+            for (int nodes : levelNodes) {
+                totalNode += nodes;
+            }
+            indexEntries = levelNodes[0] - 1;
+            dataEntries = loader.getKeyCount();
+        }
+        if (unsorted) {
+            insert(key);
+            more = reader.nextLine();
+        }
+        return more;
     }
     
     public static void main(String[] args) {
@@ -323,7 +1609,11 @@ public class MandyTree implements BTree {
         BTree mandyTree = new MandyTree(0.5, 2);
         //the value is stored in Config.java
         //build a mandyTree from the data file
-        mandyTree.load(Config.dataFileName);
+        try {
+            mandyTree.load(Config.dataFileName);
+        } catch (UncheckedIOException e) {
+            System.out.println("Could not read " + Config.dataFileName + ": " + e.getMessage());
+        }
 
         //interact with the tree via a text interface.
         CLI.shell(mandyTree);
@@ -0,0 +1,328 @@
+package btree;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PrimitiveIterator;
+import java.util.function.IntConsumer;
+
+/**
+ * Immutable snapshot of a tree, served straight off a memory mapping of the snapshot file.
+ *
+ * Opening a snapshot only maps the file, nothing is parsed or copied onto the heap, so a multi-GB index
+ * opens in milliseconds and processes mapping the same file share the OS page cache.
+ *
+ * File layout, all ints big-endian:
+ *   header (HEADER_SIZE bytes): magic | version | fanout | level count | key count (long) | level table
+ *   level 0: every key in ascending order, in packed leaves of fanout keys
+ *   level i: the first key of every block of fanout entries of level i-1, up to a level of at most fanout entries
+ * The level table holds the byte offset and the entry count of every level.
+ */
+public class MappedSnapshot implements BTree, Closeable {
+    private static final int MAGIC = 0x534E4150; // "SNAP"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 4096;
+    private static final int MAX_LEVELS = (HEADER_SIZE - 24) / 16;
+    public static final int DEFAULT_FANOUT = 64;
+
+    // a single MappedByteBuffer is limited to 2GB, so bigger files are mapped in chunks
+    private static final int CHUNK_SHIFT = 30;
+    private static final long CHUNK_SIZE = 1L << CHUNK_SHIFT;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer[] chunks;
+    private final int fanout;
+    private final long keyCount;
+    private final long[] levelOffsets;
+    private final long[] levelSizes;
+
+    private MappedSnapshot(FileChannel channel) throws IOException {
+        this.channel = channel;
+        long fileSize = channel.size();
+        int chunkCount = (int) ((fileSize + CHUNK_SIZE - 1) / CHUNK_SIZE);
+        chunks = new MappedByteBuffer[chunkCount];
+        for (int i = 0; i < chunkCount; i++) {
+            long start = (long) i << CHUNK_SHIFT;
+            chunks[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(CHUNK_SIZE, fileSize - start));
+        }
+
+        if (fileSize < HEADER_SIZE || chunks[0].getInt(0) != MAGIC || chunks[0].getInt(4) != VERSION) {
+            throw new IllegalArgumentException("Not a tree snapshot");
+        }
+        fanout = chunks[0].getInt(8);
+        int levels = chunks[0].getInt(12);
+        keyCount = chunks[0].getLong(16);
+        levelOffsets = new long[levels];
+        levelSizes = new long[levels];
+        for (int level = 0; level < levels; level++) {
+            levelOffsets[level] = chunks[0].getLong(24 + 16 * level);
+            levelSizes[level] = chunks[0].getLong(32 + 16 * level);
+        }
+    }
+
+    /**
+     * Map a snapshot file written by write
+     * @param fileName snapshot file
+     */
+    public static MappedSnapshot open(String fileName) {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        try {
+            return new MappedSnapshot(channel);
+        } catch (IOException | RuntimeException e) {
+            // not a snapshot or not mappable, the channel would otherwise stay open
+            try {
+                channel.close();
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            if (e instanceof IOException) {
+                throw new UncheckedIOException((IOException) e);
+            }
+            throw (RuntimeException) e;
+        }
+    }
+
+    /**
+     * Write a snapshot file. Keys are streamed into level 0 as they come, only the index levels,
+     * about 1/fanout of the keys, are held in memory until the end.
+     * @param fileName snapshot file, overwritten if it exists
+     * @param keys keys in strictly ascending order
+     * @param fanout keys per packed leaf and entries per index block, at least 2
+     */
+    public static void write(String fileName, PrimitiveIterator.OfInt keys, int fanout) {
+        if (fanout < 2) {
+            throw new IllegalArgumentException("Snapshot fanout must be at least 2, got " + fanout);
+        }
+        Path path = Paths.get(fileName);
+        try (FileChannel out = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+            long position = HEADER_SIZE;
+
+            // level 0 streams straight to the file, collecting the first key of every leaf on the way
+            long count = 0;
+            int[] blockKeys = new int[16];
+            int blockCount = 0;
+            while (keys.hasNext()) {
+                int key = keys.nextInt();
+                if (count % fanout == 0) {
+                    if (blockCount == blockKeys.length) {
+                        blockKeys = Arrays.copyOf(blockKeys, blockCount * 2);
+                    }
+                    blockKeys[blockCount++] = key;
+                }
+                if (!buffer.hasRemaining()) {
+                    position += drain(out, buffer, position);
+                }
+                buffer.putInt(key);
+                count++;
+            }
+            position += drain(out, buffer, position);
+
+            List<long[]> levelTable = new ArrayList<>();
+            levelTable.add(new long[]{HEADER_SIZE, count});
+
+            // index levels, each one built from the first keys of the blocks of the level below
+            int[] level = Arrays.copyOf(blockKeys, blockCount);
+            while (count > fanout) {
+                levelTable.add(new long[]{position, level.length});
+                for (int key : level) {
+                    if (!buffer.hasRemaining()) {
+                        position += drain(out, buffer, position);
+                    }
+                    buffer.putInt(key);
+                }
+                position += drain(out, buffer, position);
+                count = level.length;
+                int[] next = new int[(level.length + fanout - 1) / fanout];
+                for (int i = 0; i < next.length; i++) {
+                    next[i] = level[i * fanout];
+                }
+                level = next;
+            }
+            if (levelTable.size() > MAX_LEVELS) {
+                throw new IllegalArgumentException("Snapshot needs " + levelTable.size() + " levels, use a larger fanout");
+            }
+
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putInt(MAGIC).putInt(VERSION).putInt(fanout).putInt(levelTable.size());
+            header.putLong(levelTable.get(0)[1]);
+            for (long[] entry : levelTable) {
+                header.putLong(entry[0]).putLong(entry[1]);
+            }
+            header.clear();
+            while (header.hasRemaining()) {
+                out.write(header, header.position());
+            }
+            out.force(false);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static int drain(FileChannel out, ByteBuffer buffer, long position) throws IOException {
+        buffer.flip();
+        int written = buffer.remaining();
+        while (buffer.hasRemaining()) {
+            out.write(buffer, position + buffer.position());
+        }
+        buffer.clear();
+        return written;
+    }
+
+    private int getInt(long offset) {
+        return chunks[(int) (offset >>> CHUNK_SHIFT)].getInt((int) (offset & (CHUNK_SIZE - 1)));
+    }
+
+    private int entry(int level, long index) {
+        return getInt(levelOffsets[level] + 4 * index);
+    }
+
+    /**
+     * Descend the index levels to the first position of level 0 holding a key >= key
+     */
+    private long lowerBound(int key) {
+        long low = 0;
+        long high = levelSizes[levelSizes.length - 1];
+        for (int level = levelSizes.length - 1; level > 0; level--) {
+            // last block of the level below that starts at or before key
+            long block = low;
+            long l = low;
+            long h = high;
+            while (l < h) {
+                long mid = (l + h) >>> 1;
+                if (entry(level, mid) <= key) {
+                    block = mid;
+                    l = mid + 1;
+                } else {
+                    h = mid;
+                }
+            }
+            low = block * fanout;
+            high = Math.min(low + fanout, levelSizes[level - 1]);
+        }
+        while (low < high) {
+            long mid = (low + high) >>> 1;
+            if (entry(0, mid) < key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @param key key to look up
+     * @return whether the snapshot holds key
+     */
+    public boolean contains(int key) {
+        long position = lowerBound(key);
+        return position < keyCount && entry(0, position) == key;
+    }
+
+    /**
+     * Search tree by range
+     * @param key1 First key
+     * @param key2 Second key
+     * @return List of keys
+     */
+    @Override
+    public List<Integer> search(int key1, int key2) {
+        List<Integer> result = new ArrayList<>();
+        search(key1, key2, result::add);
+        return result;
+    }
+
+    /**
+     * Search tree by range, reading the keys off the mapping
+     * @param key1 First key
+     * @param key2 Second key
+     * @param consumer receives the keys in ascending order
+     */
+    @Override
+    public void search(int key1, int key2, IntConsumer consumer) {
+        for (long position = lowerBound(key1); position < keyCount; position++) {
+            int key = entry(0, position);
+            if (key > key2) {
+                return;
+            }
+            consumer.accept(key);
+        }
+    }
+
+    @Override
+    public void load(String datafilename) {
+        throw new UnsupportedOperationException("A snapshot is read-only, write a new one instead");
+    }
+
+    @Override
+    public void insert(int key) {
+        throw new UnsupportedOperationException("A snapshot is read-only");
+    }
+
+    @Override
+    public void delete(int key) {
+        throw new UnsupportedOperationException("A snapshot is read-only");
+    }
+
+    /**
+     * Print the index levels of the snapshot, the leaf level is only summarized
+     */
+    @Override
+    public void printTree() {
+        for (int level = levelSizes.length - 1; level > 0 && levelSizes[level] <= 1024; level--) {
+            System.out.print("[");
+            for (long i = 0; i < levelSizes[level]; i++) {
+                System.out.print(entry(level, i));
+                if (i != levelSizes[level] - 1) {
+                    System.out.print(", ");
+                }
+            }
+            System.out.println("]");
+        }
+        System.out.println("[" + keyCount + " keys in leaves of " + fanout + "]");
+    }
+
+    /**
+     * Print statistics of the snapshot
+     */
+    @Override
+    public void dumpStatistics() {
+        System.out.println("Statistics of the B+ Tree snapshot:");
+        System.out.println("Total number of data entries: " + keyCount);
+        long indexEntries = 0;
+        for (int level = 1; level < levelSizes.length; level++) {
+            indexEntries += levelSizes[level];
+        }
+        System.out.println("Total number of index entries: " + indexEntries);
+        System.out.println("Fanout: " + fanout);
+        System.out.println("Height of tree: " + levelSizes.length);
+    }
+
+    /**
+     * Close the file, the mapping itself is released once it is garbage collected
+     */
+    @Override
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package btree;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Fixed-size node slots in direct memory outside the Java heap, addressed by an int node id.
+ *
+ * Slots are carved out of direct ByteBuffer chunks of about a megabyte, a chunk is reserved when the
+ * previous one is full. The garbage collector sees a handful of chunk objects however many nodes
+ * the arena holds; the memory is released when the arena becomes unreachable.
+ * Freed nodes go on a free list threaded through their first int and are handed out again before the
+ * arena grows, so a tree that deletes as much as it inserts stays the same size.
+ */
+class NodeArena {
+    private static final int CHUNK_BYTES = 1 << 20;
+    private static final int NO_FREE_NODE = -1;
+
+    private final int nodeSize;
+    private final int chunkShift; // node id >>> chunkShift is the chunk, the low bits the slot in it
+    private final int slotMask;
+    private ByteBuffer[] chunks = new ByteBuffer[8];
+    private int chunkCount = 0;
+    private int nodeCount = 0; // ids handed out so far, freed ones included
+    private int freeNode = NO_FREE_NODE; // head of the free list
+    private int freeCount = 0;
+
+    /**
+     * @param nodeSize bytes per node
+     */
+    NodeArena(int nodeSize) {
+        this.nodeSize = nodeSize;
+        // a power of two nodes per chunk, so the chunk of a node is a shift instead of a division
+        int nodesPerChunk = Integer.highestOneBit(Math.max(1, CHUNK_BYTES / nodeSize));
+        this.chunkShift = Integer.numberOfTrailingZeros(nodesPerChunk);
+        this.slotMask = nodesPerChunk - 1;
+    }
+
+    /**
+     * Reserve a zero-filled node
+     * @return id of the new node
+     */
+    int allocate() {
+        if (freeNode != NO_FREE_NODE) {
+            int node = freeNode;
+            freeNode = getInt(node, 0);
+            freeCount--;
+            ByteBuffer chunk = chunk(node);
+            int base = base(node);
+            for (int i = 0; i < nodeSize; i += 4) {
+                chunk.putInt(base + i, 0);
+            }
+            return node;
+        }
+        int node = nodeCount;
+        int chunk = node >>> chunkShift;
+        if (chunk == chunkCount) {
+            if (chunkCount == chunks.length) {
+                chunks = Arrays.copyOf(chunks, chunkCount * 2);
+            }
+            // allocateDirect zero-fills, so fresh slots need no clearing
+            chunks[chunkCount++] = ByteBuffer.allocateDirect((slotMask + 1) * nodeSize).order(ByteOrder.nativeOrder());
+        }
+        nodeCount++;
+        return node;
+    }
+
+    private ByteBuffer chunk(int node) {
+        return chunks[node >>> chunkShift];
+    }
+
+    private int base(int node) {
+        return (node & slotMask) * nodeSize;
+    }
+
+    /**
+     * Give back a node no longer reachable from the tree, a later allocate reuses it
+     */
+    void free(int node) {
+        putInt(node, 0, freeNode);
+        freeNode = node;
+        freeCount++;
+    }
+
+    int getInt(int node, int offset) {
+        return chunk(node).getInt(base(node) + offset);
+    }
+
+    void putInt(int node, int offset, int value) {
+        chunk(node).putInt(base(node) + offset, value);
+    }
+
+    /**
+     * Shift count ints starting at slot from of the array at offset by distance slots, within one node
+     */
+    void move(int node, int offset, int from, int count, int distance) {
+        ByteBuffer chunk = chunk(node);
+        int start = base(node) + offset + 4 * from;
+        int shift = 4 * distance;
+        // the ranges overlap, so copy away from the side being written to
+        if (distance > 0) {
+            for (int i = 4 * (count - 1); i >= 0; i -= 4) {
+                chunk.putInt(start + i + shift, chunk.getInt(start + i));
+            }
+        } else {
+            for (int i = 0; i < 4 * count; i += 4) {
+                chunk.putInt(start + i + shift, chunk.getInt(start + i));
+            }
+        }
+    }
+
+    /**
+     * Copy count ints starting at slot from of the array at offset into the same array of target at slot to
+     */
+    void copy(int node, int offset, int from, int target, int to, int count) {
+        chunk(target).put(base(target) + offset + 4 * to, chunk(node), base(node) + offset + 4 * from, 4 * count);
+    }
+
+    /**
+     * @return number of nodes in use
+     */
+    int getNodeCount() {
+        return nodeCount - freeCount;
+    }
+
+    /**
+     * @return bytes of direct memory reserved, including the unused slots of the last chunk
+     */
+    long getReservedBytes() {
+        return (long) chunkCount * (slotMask + 1) * nodeSize;
+    }
+}
@@ -0,0 +1,366 @@
+package btree;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+import Utils.Utils.DuplicateKeyException;
+import Utils.Utils.KeyNotFoundException;
+import Utils.RecordReader;
+
+/**
+ * B+ tree whose nodes live in a NodeArena of direct memory instead of on the Java heap, so a tree of
+ * hundreds of millions of keys adds nothing for the garbage collector to mark and pauses do not grow
+ * with the index.
+ *
+ * Nodes are fixed-size slots addressed by an int id and refer to each other by id, laid out like the
+ * pages of PagedMandyTree:
+ *   int type | int keyCount | int next leaf | int previous leaf | keys[] | children[] (index)
+ * Leaves hold keys only. Updates descend with an explicit stack of node ids since nodes carry no parent
+ * pointer. Deletes never merge nodes, an underfull node stays in place; an emptied leaf is unlinked from
+ * the chain and its parent, and its slot goes back to the arena for reuse.
+ */
+public class OffHeapMandyTree implements BTree {
+    private static final int NO_NODE = -1;
+
+    // header of a node
+    private static final int LEAF = 1;
+    private static final int INDEX = 2;
+    private static final int TYPE_OFFSET = 0;
+    private static final int COUNT_OFFSET = 4;
+    private static final int NEXT_OFFSET = 8;
+    private static final int PREVIOUS_OFFSET = 12;
+    private static final int KEYS_OFFSET = 16;
+
+    private final NodeArena arena;
+    private final int slots; // key slots per node, one more than DEGREE so a node can overflow before it splits
+    private final int childrenOffset;
+    private final int DEGREE;
+    private int root;
+    private int height;
+    private long dataEntries;
+
+    /**
+     * @param DEGREE maximum number of keys per node, at least 2
+     */
+    public OffHeapMandyTree(int DEGREE) {
+        if (DEGREE < 2) {
+            throw new IllegalArgumentException("DEGREE must be at least 2, got " + DEGREE);
+        }
+        this.DEGREE = DEGREE;
+        this.slots = DEGREE + 1;
+        this.childrenOffset = KEYS_OFFSET + 4 * slots;
+        // an overflowing index node holds one more child than keys
+        this.arena = new NodeArena(childrenOffset + 4 * (slots + 1));
+        root = arena.allocate();
+        initNode(root, LEAF);
+        height = 1;
+        dataEntries = 0;
+    }
+
+    // node accessors
+
+    private void initNode(int node, int type) {
+        arena.putInt(node, TYPE_OFFSET, type);
+        arena.putInt(node, COUNT_OFFSET, 0);
+        arena.putInt(node, NEXT_OFFSET, NO_NODE);
+        arena.putInt(node, PREVIOUS_OFFSET, NO_NODE);
+    }
+
+    private boolean isLeaf(int node) {
+        return arena.getInt(node, TYPE_OFFSET) == LEAF;
+    }
+
+    private int keyCount(int node) {
+        return arena.getInt(node, COUNT_OFFSET);
+    }
+
+    private int key(int node, int index) {
+        return arena.getInt(node, KEYS_OFFSET + 4 * index);
+    }
+
+    private int child(int node, int index) {
+        return arena.getInt(node, childrenOffset + 4 * index);
+    }
+
+    private int lowerBound(int node, int key) {
+        int low = 0;
+        int high = keyCount(node);
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (key(node, mid) < key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private int upperBound(int node, int key) {
+        int low = 0;
+        int high = keyCount(node);
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (key(node, mid) <= key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Descend from the root to the leaf covering key
+     * @param key key to look for
+     * @param path if not null, receives the index nodes passed on the way, root first
+     * @return id of the leaf
+     */
+    private int findLeaf(int key, int[] path) {
+        int node = root;
+        int depth = 0;
+        while (!isLeaf(node)) {
+            if (path != null) {
+                path[depth++] = node;
+            }
+            node = child(node, upperBound(node, key));
+        }
+        return node;
+    }
+
+    /**
+     * Insert key to tree
+     * @param key
+     */
+    @Override
+    public void insert(int key) {
+        int[] path = new int[height];
+        int leaf = findLeaf(key, path);
+        int count = keyCount(leaf);
+        int index = lowerBound(leaf, key);
+        if (index < count && key(leaf, index) == key) {
+            throw new DuplicateKeyException(String.valueOf(key));
+        }
+        arena.move(leaf, KEYS_OFFSET, index, count - index, 1);
+        arena.putInt(leaf, KEYS_OFFSET + 4 * index, key);
+        arena.putInt(leaf, COUNT_OFFSET, ++count);
+        dataEntries++;
+
+        if (count <= DEGREE) {
+            return;
+        }
+
+        // split the leaf, the upper half moves to a new node linked in on its right
+        int newLeaf = arena.allocate();
+        initNode(newLeaf, LEAF);
+        int splitIndex = count / 2;
+        arena.copy(leaf, KEYS_OFFSET, splitIndex, newLeaf, 0, count - splitIndex);
+        arena.putInt(newLeaf, COUNT_OFFSET, count - splitIndex);
+        arena.putInt(leaf, COUNT_OFFSET, splitIndex);
+
+        int next = arena.getInt(leaf, NEXT_OFFSET);
+        arena.putInt(newLeaf, NEXT_OFFSET, next);
+        arena.putInt(newLeaf, PREVIOUS_OFFSET, leaf);
+        arena.putInt(leaf, NEXT_OFFSET, newLeaf);
+        if (next != NO_NODE) {
+            arena.putInt(next, PREVIOUS_OFFSET, newLeaf);
+        }
+
+        insertIntoParent(path, height - 1, leaf, key(newLeaf, 0), newLeaf);
+    }
+
+    /**
+     * Insert the separator and right node produced by a split into the parent, splitting upwards as needed
+     * @param path index nodes from the root down to the parent of the split node
+     * @param depth number of entries of path still above the split node
+     */
+    private void insertIntoParent(int[] path, int depth, int left, int separator, int right) {
+        while (depth > 0) {
+            int parent = path[--depth];
+            int count = keyCount(parent);
+            int index = lowerBound(parent, separator);
+            arena.move(parent, KEYS_OFFSET, index, count - index, 1);
+            arena.move(parent, childrenOffset, index + 1, count - index, 1);
+            arena.putInt(parent, KEYS_OFFSET + 4 * index, separator);
+            arena.putInt(parent, childrenOffset + 4 * (index + 1), right);
+            arena.putInt(parent, COUNT_OFFSET, ++count);
+            if (count <= DEGREE) {
+                return;
+            }
+
+            // split the index node, the middle key moves up instead of staying in either half
+            int newIndex = arena.allocate();
+            initNode(newIndex, INDEX);
+            int splitIndex = count / 2;
+            int promoted = key(parent, splitIndex);
+            arena.copy(parent, KEYS_OFFSET, splitIndex + 1, newIndex, 0, count - splitIndex - 1);
+            arena.copy(parent, childrenOffset, splitIndex + 1, newIndex, 0, count - splitIndex);
+            arena.putInt(newIndex, COUNT_OFFSET, count - splitIndex - 1);
+            arena.putInt(parent, COUNT_OFFSET, splitIndex);
+
+            left = parent;
+            separator = promoted;
+            right = newIndex;
+        }
+
+        // the root split, grow the tree by one level
+        int newRoot = arena.allocate();
+        initNode(newRoot, INDEX);
+        arena.putInt(newRoot, KEYS_OFFSET, separator);
+        arena.putInt(newRoot, childrenOffset, left);
+        arena.putInt(newRoot, childrenOffset + 4, right);
+        arena.putInt(newRoot, COUNT_OFFSET, 1);
+        root = newRoot;
+        height++;
+    }
+
+    /**
+     * Delete a key from the tree. The node is not merged with a sibling if it becomes underfull,
+     * but removed if it becomes empty.
+     * @param key key to be deleted
+     */
+    @Override
+    public void delete(int key) {
+        int[] path = new int[height];
+        int leaf = findLeaf(key, path);
+        int count = keyCount(leaf);
+        int index = lowerBound(leaf, key);
+        if (index == count || key(leaf, index) != key) {
+            throw new KeyNotFoundException(String.valueOf(key));
+        }
+        arena.move(leaf, KEYS_OFFSET, index + 1, count - index - 1, -1);
+        arena.putInt(leaf, COUNT_OFFSET, count - 1);
+        dataEntries--;
+
+        if (count == 1 && leaf != root) {
+            // an empty leaf would stay in the chain for every scan to step over, and in the arena for good
+            int previous = arena.getInt(leaf, PREVIOUS_OFFSET);
+            int next = arena.getInt(leaf, NEXT_OFFSET);
+            if (previous != NO_NODE) {
+                arena.putInt(previous, NEXT_OFFSET, next);
+            }
+            if (next != NO_NODE) {
+                arena.putInt(next, PREVIOUS_OFFSET, previous);
+            }
+            removeChild(path, height - 1, key, leaf);
+        }
+    }
+
+    /**
+     * Free a node and drop it from its parent, freeing parents left without a child on the way up,
+     * then collapse a root left with a single child
+     * @param path index nodes from the root down to the parent of node
+     * @param depth number of entries of path above node
+     * @param key key the path was found by
+     */
+    private void removeChild(int[] path, int depth, int key, int node) {
+        arena.free(node);
+        while (depth > 0) {
+            int parent = path[--depth];
+            int count = keyCount(parent);
+            if (count == 0) {
+                // node was its only child, the root always has two, so this stops below it
+                arena.free(parent);
+                continue;
+            }
+            // the separator left of the child goes with it, the first child takes the one on its right along
+            int slot = upperBound(parent, key);
+            int separator = slot > 0 ? slot - 1 : 0;
+            arena.move(parent, KEYS_OFFSET, separator + 1, count - separator - 1, -1);
+            arena.move(parent, childrenOffset, slot + 1, count - slot, -1);
+            arena.putInt(parent, COUNT_OFFSET, count - 1);
+            break;
+        }
+
+        while (!isLeaf(root) && keyCount(root) == 0) {
+            int child = child(root, 0);
+            arena.free(root);
+            root = child;
+            height--;
+        }
+    }
+
+    /**
+     * Search tree by range
+     * @param key1 First key
+     * @param key2 Second key
+     * @return List of keys
+     */
+    @Override
+    public List<Integer> search(int key1, int key2) {
+        List<Integer> result = new ArrayList<>();
+        search(key1, key2, result::add);
+        return result;
+    }
+
+    /**
+     * Search tree by range along the leaf chain
+     * @param key1 First key
+     * @param key2 Second key
+     * @param consumer receives the keys in ascending order
+     */
+    @Override
+    public void search(int key1, int key2, IntConsumer consumer) {
+        int leaf = findLeaf(key1, null);
+        int index = lowerBound(leaf, key1);
+        while (leaf != NO_NODE) {
+            int count = keyCount(leaf);
+            for (; index < count; index++) {
+                int key = key(leaf, index);
+                if (key > key2) {
+                    return;
+                }
+                consumer.accept(key);
+            }
+            leaf = arena.getInt(leaf, NEXT_OFFSET);
+            index = 0;
+        }
+    }
+
+    @Override
+    public void load(String datafilename) {
+        RecordReader.readKeys(datafilename, this::insert);
+    }
+
+    /**
+     * Print tree from root
+     */
+    @Override
+    public void printTree() {
+        printTree(root);
+    }
+
+    private void printTree(int node) {
+        int count = keyCount(node);
+        System.out.print("[");
+        for (int i = 0; i < count; i++) {
+            System.out.print(key(node, i));
+            if (i != count - 1) {
+                System.out.print(", ");
+            }
+        }
+        if (isLeaf(node)) {
+            System.out.print("]");
+            return;
+        }
+        System.out.println("]");
+        for (int i = 0; i <= count; i++) {
+            printTree(child(node, i));
+        }
+        System.out.println();
+    }
+
+    /**
+     * Print statistics of the current tree
+     */
+    @Override
+    public void dumpStatistics() {
+        System.out.println("Statistics of the B+ Tree:");
+        System.out.println("Total number of nodes: " + arena.getNodeCount());
+        System.out.println("Total number of data entries: " + dataEntries);
+        System.out.println("Height of tree: " + height);
+        System.out.println("Keys per node: " + DEGREE);
+        System.out.println("Off-heap bytes reserved: " + arena.getReservedBytes());
+    }
+}
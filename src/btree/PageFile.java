@@ -0,0 +1,105 @@
+package btree;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A file seen as an array of fixed-size pages, page i starting at byte i * pageSize
+ */
+class PageFile implements Closeable {
+    private final FileChannel channel;
+    private final int pageSize;
+    private int pageCount;
+
+    public PageFile(Path path, int pageSize) {
+        this.pageSize = pageSize;
+        try {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            pageCount = (int) (channel.size() / pageSize);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    public int getPageCount() {
+        return pageCount;
+    }
+
+    /**
+     * Reserve a new page at the end of the file, it is written out the first time its frame is flushed
+     * @return id of the new page
+     */
+    public int allocate() {
+        return pageCount++;
+    }
+
+    /**
+     * Read a page into buffer, a page never written so far reads as zeros
+     * @param pageId page to read
+     * @param buffer buffer of pageSize bytes
+     */
+    public void read(int pageId, ByteBuffer buffer) {
+        buffer.clear();
+        try {
+            long position = (long) pageId * pageSize;
+            while (buffer.hasRemaining()) {
+                int read = channel.read(buffer, position + buffer.position());
+                if (read < 0) {
+                    // allocated but never flushed
+                    while (buffer.hasRemaining()) {
+                        buffer.put((byte) 0);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * @param pageId page to write
+     * @param buffer buffer of pageSize bytes
+     */
+    public void write(int pageId, ByteBuffer buffer) {
+        buffer.clear();
+        try {
+            long position = (long) pageId * pageSize;
+            while (buffer.hasRemaining()) {
+                channel.write(buffer, position + buffer.position());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Force everything written so far to the storage device
+     */
+    public void sync() {
+        try {
+            channel.force(false);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,455 @@
+package btree;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+import Utils.Utils.DuplicateKeyException;
+import Utils.Utils.KeyNotFoundException;
+import Utils.RecordReader;
+
+/**
+ * B+ tree stored in fixed-size pages of a file and accessed through a BufferPool, so the index can be
+ * much larger than the heap and is still there after a restart.
+ *
+ * Nodes refer to each other by page id instead of Java references. Page 0 holds the tree header;
+ * every other page holds one node, laid out as
+ *   int type | int keyCount | int next leaf | int previous leaf | keys[] | children[] (index only)
+ * A key is its own record, so a leaf holds nothing but keys and fits about twice as many as an index page.
+ * Inserts descend with an explicit stack of page ids since pages carry no parent pointer.
+ * Deletes never merge pages, an underfull page stays in place.
+ */
+public class PagedMandyTree implements BTree, Closeable {
+    private static final int MAGIC = 0x4D414E32; // "MAN2", leaves without values
+    private static final int HEADER_PAGE = 0;
+    private static final int NO_PAGE = -1;
+
+    // page header of a node
+    private static final int LEAF = 1;
+    private static final int INDEX = 2;
+    private static final int TYPE_OFFSET = 0;
+    private static final int COUNT_OFFSET = 4;
+    private static final int NEXT_OFFSET = 8;
+    private static final int PREVIOUS_OFFSET = 12;
+    private static final int KEYS_OFFSET = 16;
+
+    private final PageFile file;
+    private final BufferPool pool;
+    private final int slots; // key slots per index page, one more than DEGREE so a node can overflow before it splits
+    private final int DEGREE;
+    private final int leafSlots; // key slots per leaf page, one more than LEAF_DEGREE
+    private final int LEAF_DEGREE;
+    private int rootPageId;
+    private int height;
+    private long dataEntries;
+
+    /**
+     * Open a paged tree with keys per node limited only by the page size
+     * @param fileName file holding the tree, created if it does not exist
+     * @param pageSize bytes per page
+     * @param bufferPoolPages number of pages cached in memory
+     */
+    public PagedMandyTree(String fileName, int pageSize, int bufferPoolPages) {
+        this(fileName, pageSize, bufferPoolPages, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Open a paged tree
+     * @param fileName file holding the tree, created if it does not exist
+     * @param pageSize bytes per page
+     * @param bufferPoolPages number of pages cached in memory, at least 8
+     * @param DEGREE maximum number of keys per node, capped by what fits into a page; ignored when the file already holds a tree
+     */
+    public PagedMandyTree(String fileName, int pageSize, int bufferPoolPages, int DEGREE) {
+        if (bufferPoolPages < 8) {
+            throw new IllegalArgumentException("The buffer pool needs at least 8 pages, got " + bufferPoolPages);
+        }
+        this.file = new PageFile(Paths.get(fileName), pageSize);
+        this.pool = new BufferPool(file, bufferPoolPages);
+        // an index page holds a child per key and one more, a leaf page only its keys
+        int indexPageSlots = (pageSize - KEYS_OFFSET - 4) / 8;
+        int leafPageSlots = (pageSize - KEYS_OFFSET) / 4;
+
+        if (file.getPageCount() > 0) {
+            ByteBuffer header = pool.pin(HEADER_PAGE);
+            if (header.getInt(0) != MAGIC || header.getInt(4) != pageSize) {
+                pool.unpin(HEADER_PAGE, false);
+                throw new IllegalArgumentException(fileName + " is not a tree with " + pageSize + " byte pages");
+            }
+            this.slots = header.getInt(8);
+            this.rootPageId = header.getInt(12);
+            this.height = header.getInt(16);
+            this.dataEntries = header.getLong(20);
+            this.leafSlots = header.getInt(28);
+            pool.unpin(HEADER_PAGE, false);
+        } else {
+            // capped before the + 1, DEGREE may be Integer.MAX_VALUE
+            this.slots = Math.min(indexPageSlots - 1, DEGREE) + 1;
+            this.leafSlots = Math.min(leafPageSlots - 1, DEGREE) + 1;
+            if (slots < 3) {
+                throw new IllegalArgumentException("Page size " + pageSize + " is too small for a node");
+            }
+            pool.allocate(); // header page
+            rootPageId = pool.allocate();
+            ByteBuffer root = pool.pin(rootPageId);
+            initNode(root, LEAF);
+            pool.unpin(rootPageId, true);
+            height = 1;
+            dataEntries = 0;
+            writeHeader();
+        }
+        this.DEGREE = slots - 1;
+        this.LEAF_DEGREE = leafSlots - 1;
+    }
+
+    private void writeHeader() {
+        ByteBuffer header = pool.pin(HEADER_PAGE);
+        header.putInt(0, MAGIC);
+        header.putInt(4, file.getPageSize());
+        header.putInt(8, slots);
+        header.putInt(12, rootPageId);
+        header.putInt(16, height);
+        header.putLong(20, dataEntries);
+        header.putInt(28, leafSlots);
+        pool.unpin(HEADER_PAGE, true);
+    }
+
+    // page accessors
+
+    private static void initNode(ByteBuffer page, int type) {
+        page.putInt(TYPE_OFFSET, type);
+        page.putInt(COUNT_OFFSET, 0);
+        page.putInt(NEXT_OFFSET, NO_PAGE);
+        page.putInt(PREVIOUS_OFFSET, NO_PAGE);
+    }
+
+    private static boolean isLeaf(ByteBuffer page) {
+        return page.getInt(TYPE_OFFSET) == LEAF;
+    }
+
+    private static int keyCount(ByteBuffer page) {
+        return page.getInt(COUNT_OFFSET);
+    }
+
+    private static int key(ByteBuffer page, int index) {
+        return page.getInt(KEYS_OFFSET + 4 * index);
+    }
+
+    /**
+     * Offset of the children of an index node
+     */
+    private int childrenOffset() {
+        return KEYS_OFFSET + 4 * slots;
+    }
+
+    private int child(ByteBuffer page, int index) {
+        return page.getInt(childrenOffset() + 4 * index);
+    }
+
+    /**
+     * Shift count ints starting at slot from of the array at offset by distance slots
+     */
+    private static void shift(ByteBuffer page, int offset, int from, int count, int distance) {
+        byte[] bytes = page.array();
+        System.arraycopy(bytes, offset + 4 * from, bytes, offset + 4 * (from + distance), 4 * count);
+    }
+
+    /**
+     * Copy count ints starting at slot from of the array at offset into the same array of target at slot to
+     */
+    private static void copy(ByteBuffer page, int offset, int from, ByteBuffer target, int to, int count) {
+        System.arraycopy(page.array(), offset + 4 * from, target.array(), offset + 4 * to, 4 * count);
+    }
+
+    private static int lowerBound(ByteBuffer page, int key) {
+        int low = 0;
+        int high = keyCount(page);
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (key(page, mid) < key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static int upperBound(ByteBuffer page, int key) {
+        int low = 0;
+        int high = keyCount(page);
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (key(page, mid) <= key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Descend from the root to the leaf covering key
+     * @param key key to look for
+     * @param path if not null, receives the index pages passed on the way, root first
+     * @return page id of the leaf, which is left unpinned
+     */
+    private int findLeafPage(int key, int[] path) {
+        int pageId = rootPageId;
+        int depth = 0;
+        while (true) {
+            ByteBuffer page = pool.pin(pageId);
+            if (isLeaf(page)) {
+                pool.unpin(pageId, false);
+                return pageId;
+            }
+            int childPageId = child(page, upperBound(page, key));
+            pool.unpin(pageId, false);
+            if (path != null) {
+                path[depth++] = pageId;
+            }
+            pageId = childPageId;
+        }
+    }
+
+    /**
+     * Insert key to tree
+     * @param key
+     */
+    @Override
+    public void insert(int key) {
+        int[] path = new int[height];
+        int leafId = findLeafPage(key, path);
+        ByteBuffer leaf = pool.pin(leafId);
+        int count = keyCount(leaf);
+        int index = lowerBound(leaf, key);
+        if (index < count && key(leaf, index) == key) {
+            pool.unpin(leafId, false);
+            throw new DuplicateKeyException(String.valueOf(key));
+        }
+        shift(leaf, KEYS_OFFSET, index, count - index, 1);
+        leaf.putInt(KEYS_OFFSET + 4 * index, key);
+        leaf.putInt(COUNT_OFFSET, ++count);
+        dataEntries++;
+
+        if (count <= LEAF_DEGREE) {
+            pool.unpin(leafId, true);
+            return;
+        }
+
+        // split the leaf, the upper half moves to a new page linked in on its right
+        int newLeafId = pool.allocate();
+        ByteBuffer newLeaf = pool.pin(newLeafId);
+        initNode(newLeaf, LEAF);
+        int splitIndex = count / 2;
+        copy(leaf, KEYS_OFFSET, splitIndex, newLeaf, 0, count - splitIndex);
+        newLeaf.putInt(COUNT_OFFSET, count - splitIndex);
+        leaf.putInt(COUNT_OFFSET, splitIndex);
+
+        int nextId = leaf.getInt(NEXT_OFFSET);
+        newLeaf.putInt(NEXT_OFFSET, nextId);
+        newLeaf.putInt(PREVIOUS_OFFSET, leafId);
+        leaf.putInt(NEXT_OFFSET, newLeafId);
+        if (nextId != NO_PAGE) {
+            ByteBuffer next = pool.pin(nextId);
+            next.putInt(PREVIOUS_OFFSET, newLeafId);
+            pool.unpin(nextId, true);
+        }
+        int separator = key(newLeaf, 0);
+        pool.unpin(leafId, true);
+        pool.unpin(newLeafId, true);
+
+        insertIntoParent(path, height - 1, leafId, separator, newLeafId);
+    }
+
+    /**
+     * Insert the separator and right page produced by a split into the parent, splitting upwards as needed
+     * @param path index pages from the root down to the parent of the split page
+     * @param depth number of entries of path still above the split page
+     */
+    private void insertIntoParent(int[] path, int depth, int leftId, int separator, int rightId) {
+        while (depth > 0) {
+            int parentId = path[--depth];
+            ByteBuffer parent = pool.pin(parentId);
+            int count = keyCount(parent);
+            int index = lowerBound(parent, separator);
+            shift(parent, KEYS_OFFSET, index, count - index, 1);
+            shift(parent, childrenOffset(), index + 1, count - index, 1);
+            parent.putInt(KEYS_OFFSET + 4 * index, separator);
+            parent.putInt(childrenOffset() + 4 * (index + 1), rightId);
+            parent.putInt(COUNT_OFFSET, ++count);
+            if (count <= DEGREE) {
+                pool.unpin(parentId, true);
+                return;
+            }
+
+            // split the index page, the middle key moves up instead of staying in either half
+            int newIndexId = pool.allocate();
+            ByteBuffer newIndex = pool.pin(newIndexId);
+            initNode(newIndex, INDEX);
+            int splitIndex = count / 2;
+            int promoted = key(parent, splitIndex);
+            copy(parent, KEYS_OFFSET, splitIndex + 1, newIndex, 0, count - splitIndex - 1);
+            copy(parent, childrenOffset(), splitIndex + 1, newIndex, 0, count - splitIndex);
+            newIndex.putInt(COUNT_OFFSET, count - splitIndex - 1);
+            parent.putInt(COUNT_OFFSET, splitIndex);
+            pool.unpin(parentId, true);
+            pool.unpin(newIndexId, true);
+
+            leftId = parentId;
+            separator = promoted;
+            rightId = newIndexId;
+        }
+
+        // the root split, grow the tree by one level
+        int newRootId = pool.allocate();
+        ByteBuffer newRoot = pool.pin(newRootId);
+        initNode(newRoot, INDEX);
+        newRoot.putInt(KEYS_OFFSET, separator);
+        newRoot.putInt(childrenOffset(), leftId);
+        newRoot.putInt(childrenOffset() + 4, rightId);
+        newRoot.putInt(COUNT_OFFSET, 1);
+        pool.unpin(newRootId, true);
+        rootPageId = newRootId;
+        height++;
+        writeHeader();
+    }
+
+    /**
+     * Delete a key from the tree. The page is not merged with a sibling if it becomes underfull.
+     * @param key key to be deleted
+     */
+    @Override
+    public void delete(int key) {
+        int leafId = findLeafPage(key, null);
+        ByteBuffer leaf = pool.pin(leafId);
+        int count = keyCount(leaf);
+        int index = lowerBound(leaf, key);
+        if (index == count || key(leaf, index) != key) {
+            pool.unpin(leafId, false);
+            throw new KeyNotFoundException(String.valueOf(key));
+        }
+        shift(leaf, KEYS_OFFSET, index + 1, count - index - 1, -1);
+        leaf.putInt(COUNT_OFFSET, count - 1);
+        pool.unpin(leafId, true);
+        dataEntries--;
+    }
+
+    /**
+     * Search tree by range
+     * @param key1 First key
+     * @param key2 Second key
+     * @return List of keys
+     */
+    @Override
+    public List<Integer> search(int key1, int key2) {
+        List<Integer> result = new ArrayList<>();
+        search(key1, key2, result::add);
+        return result;
+    }
+
+    /**
+     * Search tree by range, pinning one leaf page at a time along the leaf chain
+     * @param key1 First key
+     * @param key2 Second key
+     * @param consumer receives the keys in ascending order
+     */
+    @Override
+    public void search(int key1, int key2, IntConsumer consumer) {
+        int pageId = findLeafPage(key1, null);
+        ByteBuffer leaf = pool.pin(pageId);
+        int index = lowerBound(leaf, key1);
+        while (true) {
+            int count = keyCount(leaf);
+            for (; index < count; index++) {
+                int key = key(leaf, index);
+                if (key > key2) {
+                    pool.unpin(pageId, false);
+                    return;
+                }
+                consumer.accept(key);
+            }
+            int nextId = leaf.getInt(NEXT_OFFSET);
+            pool.unpin(pageId, false);
+            if (nextId == NO_PAGE) {
+                return;
+            }
+            pageId = nextId;
+            leaf = pool.pin(pageId);
+            index = 0;
+        }
+    }
+
+    @Override
+    public void load(String datafilename) {
+        RecordReader.readKeys(datafilename, this::insert);
+    }
+
+    /**
+     * Write every dirty page and the header to the file and force it to disk
+     */
+    public void flush() {
+        writeHeader();
+        pool.flush();
+        file.sync();
+    }
+
+    @Override
+    public void close() {
+        flush();
+        file.close();
+    }
+
+    /**
+     * Print tree from root
+     */
+    @Override
+    public void printTree() {
+        printTree(rootPageId);
+    }
+
+    private void printTree(int pageId) {
+        ByteBuffer page = pool.pin(pageId);
+        int count = keyCount(page);
+        System.out.print("[");
+        for (int i = 0; i < count; i++) {
+            System.out.print(key(page, i));
+            if (i != count - 1) {
+                System.out.print(", ");
+            }
+        }
+        if (isLeaf(page)) {
+            System.out.print("]");
+            pool.unpin(pageId, false);
+            return;
+        }
+        System.out.println("]");
+        int[] children = new int[count + 1];
+        for (int i = 0; i <= count; i++) {
+            children[i] = child(page, i);
+        }
+        pool.unpin(pageId, false);
+        for (int childPageId : children) {
+            printTree(childPageId);
+        }
+        System.out.println();
+    }
+
+    /**
+     * Print statistics of the current tree
+     */
+    @Override
+    public void dumpStatistics() {
+        System.out.println("Statistics of the B+ Tree:");
+        System.out.println("Total number of pages: " + file.getPageCount());
+        System.out.println("Total number of data entries: " + dataEntries);
+        System.out.println("Height of tree: " + height);
+        System.out.println("Keys per node: " + LEAF_DEGREE + " in leaves, " + DEGREE + " in index nodes");
+        System.out.println("Buffer pool: " + pool.getFrameCount() + " frames, "
+                + pool.getHits() + " hits, " + pool.getMisses() + " misses");
+    }
+}
@@ -0,0 +1,24 @@
+package btree;
+
+/**
+ * How an overflowing leaf uses its neighbours before it splits. Only neighbours under the same parent
+ * are considered, the separator between two leaves of different parents lives further up the tree.
+ */
+public enum RedistributionPolicy {
+    /**
+     * Never redistribute, an overflowing leaf always splits
+     */
+    OFF,
+
+    /**
+     * Move a single key into a neighbour with room, the previous one first
+     */
+    ONE_KEY,
+
+    /**
+     * Spread the keys evenly over the leaf and a neighbour with room. When both neighbours are full,
+     * split the leaf and one neighbour into three leaves (B*-tree), so leaves start out two thirds full
+     * instead of half full.
+     */
+    EVEN
+}
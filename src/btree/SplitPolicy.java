@@ -0,0 +1,57 @@
+package btree;
+
+/**
+ * Where an overflowing node is split. Every split of a tree uses the policy the tree is set to.
+ *
+ * A split is an append when the node is the right-most of its level and the new key went in after
+ * all of its keys, as it does for ascending ids. The right-most nodes are exempt from the minimum fill,
+ * they fill up with the next appends.
+ */
+public enum SplitPolicy {
+    /**
+     * Split in the middle, both halves keep room for inserts anywhere in their range
+     */
+    MIDDLE {
+        @Override
+        public int leafSplitIndex(int count, boolean append) {
+            return count / 2;
+        }
+
+        @Override
+        public int indexSplitIndex(int count, boolean append) {
+            return count / 2;
+        }
+    },
+
+    /**
+     * Split appends so that the left node stays full and the new right-most node starts out with the new key,
+     * split everything else in the middle. Ascending inserts thus leave full leaves behind instead of
+     * half-empty ones, about halving the nodes of a tree built from time-ordered ids.
+     */
+    APPEND {
+        @Override
+        public int leafSplitIndex(int count, boolean append) {
+            return append ? count - 1 : count / 2;
+        }
+
+        @Override
+        public int indexSplitIndex(int count, boolean append) {
+            // the right node needs a separator of its own, so the left keeps all but the last two
+            return append ? count - 2 : count / 2;
+        }
+    };
+
+    /**
+     * @param count number of keys in the overflowing leaf
+     * @param append whether the leaf is the right-most one and the new key is its largest
+     * @return number of keys the leaf keeps, the rest move to the new right sibling
+     */
+    public abstract int leafSplitIndex(int count, boolean append);
+
+    /**
+     * @param count number of keys in the overflowing index node
+     * @param append whether the node is the right-most of its level and the new separator is its largest
+     * @return position of the separator pushed up, the keys left of it stay in the node
+     */
+    public abstract int indexSplitIndex(int count, boolean append);
+}
@@ -0,0 +1,63 @@
+package btree;
+
+/**
+ * Receives the structural events of a tree, for metrics or debugging. Every method does nothing by
+ * default, so a listener only overrides the events it cares about.
+ *
+ * The tree calls the listener on the thread doing the operation, while the operation is in progress,
+ * so a listener must be cheap and must not touch the tree.
+ */
+public interface TreeListener {
+    /** Listener of a tree nobody listens to */
+    TreeListener NOOP = new TreeListener() {
+    };
+
+    /**
+     * An operation descended from the root to a leaf
+     * @param nodesVisited nodes on the way, the leaf included
+     */
+    default void onDescent(int nodesVisited) {
+    }
+
+    /** An operation found its leaf in the finger cache instead of descending */
+    default void onFingerHit() {
+    }
+
+    /** A full leaf was split in two, or more by a batch */
+    default void onLeafSplit() {
+    }
+
+    /** An overflowing index node was split in two */
+    default void onIndexSplit() {
+    }
+
+    /** The root was split, the tree grew by one level */
+    default void onRootSplit() {
+    }
+
+    /** The root lost its last separator, the tree shrank by one level */
+    default void onRootCollapse() {
+    }
+
+    /**
+     * A full leaf moved keys to a sibling instead of splitting, one key or, with RedistributionPolicy.EVEN,
+     * as many as even out the two leaves. Splitting two full leaves into three is reported as a leaf split.
+     * @param toPrevious true if the keys went to the previous leaf, false if to the next one
+     */
+    default void onRedistribute(boolean toPrevious) {
+    }
+
+    /**
+     * An underfull node took an entry from a sibling
+     * @param leaf whether the node is a leaf
+     */
+    default void onBorrow(boolean leaf) {
+    }
+
+    /**
+     * An underfull node was merged with a sibling
+     * @param leaf whether the nodes are leaves
+     */
+    default void onMerge(boolean leaf) {
+    }
+}
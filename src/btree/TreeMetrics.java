@@ -0,0 +1,161 @@
+package btree;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * TreeListener counting every event, cheap enough to leave on in production.
+ * The counters can be read at any time from another thread, snapshot() gives all of them by name
+ * for exporting to a metrics system.
+ */
+public class TreeMetrics implements TreeListener {
+    private final LongAdder descents = new LongAdder();
+    private final LongAdder nodeVisits = new LongAdder();
+    private final LongAdder fingerHits = new LongAdder();
+    private final LongAdder leafSplits = new LongAdder();
+    private final LongAdder indexSplits = new LongAdder();
+    private final LongAdder rootSplits = new LongAdder();
+    private final LongAdder rootCollapses = new LongAdder();
+    private final LongAdder redistributionsToPrevious = new LongAdder();
+    private final LongAdder redistributionsToNext = new LongAdder();
+    private final LongAdder leafBorrows = new LongAdder();
+    private final LongAdder indexBorrows = new LongAdder();
+    private final LongAdder leafMerges = new LongAdder();
+    private final LongAdder indexMerges = new LongAdder();
+
+    @Override
+    public void onDescent(int nodesVisited) {
+        descents.increment();
+        nodeVisits.add(nodesVisited);
+    }
+
+    @Override
+    public void onFingerHit() {
+        fingerHits.increment();
+    }
+
+    @Override
+    public void onLeafSplit() {
+        leafSplits.increment();
+    }
+
+    @Override
+    public void onIndexSplit() {
+        indexSplits.increment();
+    }
+
+    @Override
+    public void onRootSplit() {
+        rootSplits.increment();
+    }
+
+    @Override
+    public void onRootCollapse() {
+        rootCollapses.increment();
+    }
+
+    @Override
+    public void onRedistribute(boolean toPrevious) {
+        (toPrevious ? redistributionsToPrevious : redistributionsToNext).increment();
+    }
+
+    @Override
+    public void onBorrow(boolean leaf) {
+        (leaf ? leafBorrows : indexBorrows).increment();
+    }
+
+    @Override
+    public void onMerge(boolean leaf) {
+        (leaf ? leafMerges : indexMerges).increment();
+    }
+
+    public long getDescents() {
+        return descents.sum();
+    }
+
+    /**
+     * @return average number of nodes visited per descent, 0 if there was none
+     */
+    public double getAverageNodeVisits() {
+        long count = descents.sum();
+        return count == 0 ? 0 : (double) nodeVisits.sum() / count;
+    }
+
+    public long getFingerHits() {
+        return fingerHits.sum();
+    }
+
+    public long getLeafSplits() {
+        return leafSplits.sum();
+    }
+
+    public long getIndexSplits() {
+        return indexSplits.sum();
+    }
+
+    public long getRootSplits() {
+        return rootSplits.sum();
+    }
+
+    public long getRootCollapses() {
+        return rootCollapses.sum();
+    }
+
+    public long getRedistributions() {
+        return redistributionsToPrevious.sum() + redistributionsToNext.sum();
+    }
+
+    public long getBorrows() {
+        return leafBorrows.sum() + indexBorrows.sum();
+    }
+
+    public long getMerges() {
+        return leafMerges.sum() + indexMerges.sum();
+    }
+
+    /**
+     * @return every counter by name, in a fixed order
+     */
+    public Map<String, Long> snapshot() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        result.put("descents", descents.sum());
+        result.put("node_visits", nodeVisits.sum());
+        result.put("finger_hits", fingerHits.sum());
+        result.put("leaf_splits", leafSplits.sum());
+        result.put("index_splits", indexSplits.sum());
+        result.put("root_splits", rootSplits.sum());
+        result.put("root_collapses", rootCollapses.sum());
+        result.put("redistributions_to_previous", redistributionsToPrevious.sum());
+        result.put("redistributions_to_next", redistributionsToNext.sum());
+        result.put("leaf_borrows", leafBorrows.sum());
+        result.put("index_borrows", indexBorrows.sum());
+        result.put("leaf_merges", leafMerges.sum());
+        result.put("index_merges", indexMerges.sum());
+        return result;
+    }
+
+    /**
+     * Set every counter back to zero
+     */
+    public void reset() {
+        descents.reset();
+        nodeVisits.reset();
+        fingerHits.reset();
+        leafSplits.reset();
+        indexSplits.reset();
+        rootSplits.reset();
+        rootCollapses.reset();
+        redistributionsToPrevious.reset();
+        redistributionsToNext.reset();
+        leafBorrows.reset();
+        indexBorrows.reset();
+        leafMerges.reset();
+        indexMerges.reset();
+    }
+
+    @Override
+    public String toString() {
+        return snapshot().toString();
+    }
+}
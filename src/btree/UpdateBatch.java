@@ -0,0 +1,56 @@
+package btree;
+
+import java.util.Arrays;
+
+/**
+ * A sequence of inserts and deletes to be applied to a tree in one go with BTree.applyBatch
+ */
+public class UpdateBatch {
+    private int[] keys = new int[16];
+    private boolean[] inserts = new boolean[16];
+    private int size = 0;
+
+    public void insert(int key) {
+        add(key, true);
+    }
+
+    public void delete(int key) {
+        add(key, false);
+    }
+
+    private void add(int key, boolean insert) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            inserts = Arrays.copyOf(inserts, size * 2);
+        }
+        keys[size] = key;
+        inserts[size] = insert;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int getKey(int index) {
+        return keys[index];
+    }
+
+    /**
+     * @return true if the mutation at index is an insert, false if it is a delete
+     */
+    public boolean isInsert(int index) {
+        return inserts[index];
+    }
+
+    /**
+     * Drop all mutations, keeping the allocated capacity for the next batch
+     */
+    public void clear() {
+        size = 0;
+    }
+}
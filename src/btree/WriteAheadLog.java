@@ -0,0 +1,256 @@
+package btree;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Append-only log of tree mutations, one "+ key" or "- key" line per mutation, the same format as an
+ * updates file, so a log segment can be replayed with the same parser.
+ *
+ * The log is split into numbered segment files so that a checkpoint can cut it: mutations appended after
+ * rotate() go to a new segment, and segments older than the last checkpoint can be deleted.
+ *
+ * Appends only go to an in-memory buffer. Depending on the SyncPolicy, commit() then waits until the
+ * mutation is on disk. Waiting commits share fsyncs (group commit): the first waiter writes and forces
+ * everything buffered so far, and every commit covered by that fsync returns with it.
+ */
+class WriteAheadLog implements Closeable {
+    private static final Pattern SEGMENT_NAME = Pattern.compile("wal-(\\d+)\\.log");
+    private static final int BUFFER_LIMIT = 1 << 16;
+
+    private final Path directory;
+    private final DurableTree.SyncPolicy policy;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition flushed = lock.newCondition();
+    // guarded by lock
+    private FileChannel channel;
+    private int segment;
+    private StringBuilder buffer = new StringBuilder();
+    private long appendedLsn = 0; // sequence number of the last appended mutation
+    private long writtenLsn = 0; // last mutation handed to the OS
+    private long durableLsn = 0; // last mutation forced to disk
+    private boolean flushing = false; // a thread is writing the buffer out with lock released
+
+    private final Thread syncThread;
+
+    /**
+     * Open a new segment after the last existing one
+     * @param directory directory holding the segments
+     * @param policy when commits are forced to disk
+     * @param syncIntervalMillis how often the log is forced under SyncPolicy.INTERVAL
+     */
+    public WriteAheadLog(Path directory, DurableTree.SyncPolicy policy, long syncIntervalMillis) {
+        this.directory = directory;
+        this.policy = policy;
+        List<Integer> existing = segments(directory);
+        segment = existing.isEmpty() ? 1 : existing.get(existing.size() - 1) + 1;
+        channel = openSegment(segment);
+
+        if (policy == DurableTree.SyncPolicy.INTERVAL) {
+            syncThread = new Thread(() -> {
+                try {
+                    while (!Thread.currentThread().isInterrupted()) {
+                        Thread.sleep(syncIntervalMillis);
+                        sync();
+                    }
+                } catch (InterruptedException e) {
+                    // closed
+                }
+            }, "wal-sync");
+            syncThread.setDaemon(true);
+            syncThread.start();
+        } else {
+            syncThread = null;
+        }
+    }
+
+    /**
+     * @return numbers of the segments found in directory, in ascending order
+     */
+    public static List<Integer> segments(Path directory) {
+        List<Integer> result = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.forEach((file) -> {
+                Matcher matcher = SEGMENT_NAME.matcher(file.getFileName().toString());
+                if (matcher.matches()) {
+                    result.add(Integer.parseInt(matcher.group(1)));
+                }
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        result.sort(Integer::compareTo);
+        return result;
+    }
+
+    public static Path segmentPath(Path directory, int segment) {
+        return directory.resolve(String.format("wal-%010d.log", segment));
+    }
+
+    private FileChannel openSegment(int number) {
+        try {
+            return FileChannel.open(segmentPath(directory, number), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Buffer a mutation
+     * @param insert true for an insert, false for a delete
+     * @param key key of the mutation
+     * @return sequence number to pass to commit
+     */
+    public long append(boolean insert, int key) {
+        long lsn;
+        boolean full;
+        lock.lock();
+        try {
+            buffer.append(insert ? "+ " : "- ").append(key).append('\n');
+            lsn = ++appendedLsn;
+            full = buffer.length() >= BUFFER_LIMIT;
+        } finally {
+            lock.unlock();
+        }
+        if (full && policy == DurableTree.SyncPolicy.NONE) {
+            flush(lsn, false);
+        }
+        return lsn;
+    }
+
+    /**
+     * Make the mutation with the given sequence number as durable as the SyncPolicy asks for
+     * @param lsn sequence number returned by append
+     */
+    public void commit(long lsn) {
+        if (policy == DurableTree.SyncPolicy.ALWAYS) {
+            flush(lsn, true);
+        }
+    }
+
+    /**
+     * Force everything appended so far to disk
+     */
+    public void sync() {
+        long lsn;
+        lock.lock();
+        try {
+            lsn = appendedLsn;
+        } finally {
+            lock.unlock();
+        }
+        flush(lsn, true);
+    }
+
+    /**
+     * Group commit: whoever finds no flush in progress takes the whole buffer, writes it (and forces it)
+     * with the lock released, so appenders keep filling the next buffer. Everyone else waits for that
+     * flush and only starts another one if it did not cover their mutation.
+     * @param lsn sequence number that has to be written out
+     * @param force whether it also has to be forced to disk
+     */
+    private void flush(long lsn, boolean force) {
+        lock.lock();
+        try {
+            while ((force ? durableLsn : writtenLsn) < lsn) {
+                if (flushing) {
+                    flushed.awaitUninterruptibly();
+                    continue;
+                }
+                flushing = true;
+                ByteBuffer bytes = ByteBuffer.wrap(buffer.toString().getBytes(StandardCharsets.US_ASCII));
+                buffer = new StringBuilder();
+                long target = appendedLsn;
+                FileChannel out = channel;
+                boolean done = false;
+                lock.unlock();
+                try {
+                    while (bytes.hasRemaining()) {
+                        out.write(bytes);
+                    }
+                    if (force) {
+                        out.force(false);
+                    }
+                    done = true;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                } finally {
+                    lock.lock();
+                    flushing = false;
+                    if (done) {
+                        writtenLsn = target;
+                        if (force) {
+                            durableLsn = target;
+                        }
+                    }
+                    flushed.signalAll();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Force the current segment and continue in a new one
+     * @return number of the new segment, every mutation appended before the call is in an older one
+     */
+    public int rotate() {
+        sync();
+        lock.lock();
+        try {
+            while (flushing) {
+                flushed.awaitUninterruptibly();
+            }
+            // mutations appended since the sync above still belong to the old segment
+            ByteBuffer bytes = ByteBuffer.wrap(buffer.toString().getBytes(StandardCharsets.US_ASCII));
+            buffer = new StringBuilder();
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+            channel.force(false);
+            channel.close();
+            writtenLsn = appendedLsn;
+            durableLsn = appendedLsn;
+            segment++;
+            channel = openSegment(segment);
+            return segment;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (syncThread != null) {
+            syncThread.interrupt();
+        }
+        sync();
+        lock.lock();
+        try {
+            channel.close();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            lock.unlock();
+        }
+    }
+}